@@ -0,0 +1,103 @@
+package es.uji.al259348.sliwandroid.core.repositories;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.model.TestSamples;
+import es.uji.al259348.sliwandroid.core.repositories.log.LogSampleRepository;
+import es.uji.al259348.sliwandroid.core.repositories.sqlite.SQLiteSampleRepository;
+
+/**
+ * Runs both sample repositories, SQLite and the log, through the same work on the device:
+ * saving in batches, as the samples taken offline, streaming them from the oldest, and
+ * draining them a page at a time, as they are published. The numbers are logged with the
+ * tag SampleRepoBenchmark.
+ */
+public class SampleRepositoryBenchmark extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "Sliw.db";
+    private static final String LOG_NAME = "benchmarkSamplesLog";
+
+    private static final int SAMPLES = 1000;
+    private static final int BATCH_SIZE = 25;
+    private static final int PAGE_SIZE = 50;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static void report(String repository, String operation, long startMillis, int count) {
+        long millis = SystemClock.elapsedRealtime() - startMillis;
+        Log.i("SampleRepoBenchmark", String.format("%-6s %-24s %5d samples in %6d ms, %8.0f samples/s",
+                repository, operation, count, millis, (millis == 0) ? 0 : count * 1000.0 / millis));
+    }
+
+    private static void run(String name, SampleRepository repository) {
+        // The log is shared by the process, whatever a previous run left is removed first.
+        repository.removeAll(repository.findAll());
+
+        List<Sample> samples = TestSamples.samples(SAMPLES);
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < SAMPLES; i += BATCH_SIZE)
+            repository.saveAll(samples.subList(i, Math.min(i + BATCH_SIZE, SAMPLES)));
+        report(name, "save in batches of " + BATCH_SIZE, start, SAMPLES);
+        assertEquals(SAMPLES, repository.count());
+
+        start = SystemClock.elapsedRealtime();
+        int read = 0;
+        for (Sample sample : repository.streamOldest(PAGE_SIZE))
+            read++;
+        report(name, "stream in pages of " + PAGE_SIZE, start, read);
+        assertEquals(SAMPLES, read);
+
+        // Every page is removed once read, as the published samples.
+        start = SystemClock.elapsedRealtime();
+        List<Sample> page = new ArrayList<>(PAGE_SIZE);
+        for (Sample sample : repository.streamOldest(PAGE_SIZE)) {
+            page.add(sample);
+            if (page.size() == PAGE_SIZE) {
+                repository.removeAll(page);
+                page.clear();
+            }
+        }
+        repository.removeAll(page);
+        report(name, "drain in pages of " + PAGE_SIZE, start, SAMPLES);
+        assertEquals(0, repository.count());
+
+        repository.saveAll(samples);
+        start = SystemClock.elapsedRealtime();
+        repository.removeAll(samples);
+        report(name, "removeAll", start, SAMPLES);
+        assertEquals(0, repository.count());
+    }
+
+    public void testSQLiteAgainstTheLog() {
+        SQLiteSampleRepository sqlite = new SQLiteSampleRepository(getContext());
+        try {
+            run("SQLite", sqlite);
+        } finally {
+            sqlite.onDestroy();
+        }
+
+        LogSampleRepository log = new LogSampleRepository(getContext(), LOG_NAME);
+        try {
+            run("Log", log);
+        } finally {
+            log.onDestroy();
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package es.uji.al259348.sliwandroid.core.repositories.sqlite;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.j256.ormlite.android.apptools.OpenHelperManager;
+import com.j256.ormlite.dao.RuntimeExceptionDao;
+import com.j256.ormlite.stmt.QueryBuilder;
+
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.model.TestSamples;
+
+/**
+ * Measures the batched writes and the keyset paging of {@link SQLiteSampleRepository}
+ * against a row at a time and offset paging on the device. The numbers are logged with
+ * the tag SampleRepoBenchmark.
+ */
+public class SQLiteSampleRepositoryBenchmark extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "Sliw.db";
+
+    private static final int SAMPLES = 1000;
+    private static final int PAGE_SIZE = 50;
+
+    private SQLiteSliwDatabase helper;
+    private SQLiteSampleRepository repository;
+    private RuntimeExceptionDao<Sample, String> dao;
+    private RuntimeExceptionDao<Sample.WifiScanResult, Integer> scanResultDao;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+
+        repository = new SQLiteSampleRepository(getContext());
+        helper = OpenHelperManager.getHelper(getContext(), SQLiteSliwDatabase.class);
+        dao = helper.getRuntimeExceptionDao(Sample.class);
+        scanResultDao = helper.getRuntimeExceptionDao(Sample.WifiScanResult.class);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        OpenHelperManager.releaseHelper();
+        repository.onDestroy();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static void report(String operation, long startMillis, int count) {
+        long millis = SystemClock.elapsedRealtime() - startMillis;
+        Log.i("SampleRepoBenchmark", String.format("%-28s %5d samples in %6d ms, %8.0f samples/s",
+                operation, count, millis, (millis == 0) ? 0 : count * 1000.0 / millis));
+    }
+
+    public void testBatchedWritesAgainstARowAtATime() {
+        // Every row committed on its own, as the repository did before.
+        List<Sample> samples = TestSamples.samples(SAMPLES / 10);
+        long start = SystemClock.elapsedRealtime();
+        for (Sample sample : samples) {
+            dao.createOrUpdate(sample);
+            for (Sample.WifiScanResult scanResult : sample.getScanResults()) {
+                scanResult.sample = sample;
+                scanResultDao.create(scanResult);
+            }
+        }
+        report("insert a row at a time", start, samples.size());
+
+        samples = TestSamples.samples(SAMPLES);
+        start = SystemClock.elapsedRealtime();
+        repository.saveAll(samples);
+        report("saveAll in a transaction", start, samples.size());
+
+        assertEquals(SAMPLES + SAMPLES / 10, repository.count());
+    }
+
+    public void testKeysetPagingAgainstOffsets() throws Exception {
+        repository.saveAll(TestSamples.samples(SAMPLES));
+
+        long start = SystemClock.elapsedRealtime();
+        int read = 0;
+        for (Sample sample : repository.streamOldest(PAGE_SIZE))
+            read++;
+        report("keyset pages of " + PAGE_SIZE, start, read);
+        assertEquals(SAMPLES, read);
+
+        // The same pages by offset, loading the scan results eagerly one sample at a time.
+        start = SystemClock.elapsedRealtime();
+        read = 0;
+        for (long offset = 0; ; offset += PAGE_SIZE) {
+            QueryBuilder<Sample, String> queryBuilder = dao.queryBuilder()
+                    .orderBy("date", true)
+                    .orderBy("id", true)
+                    .offset(offset)
+                    .limit((long) PAGE_SIZE);
+            List<Sample> page = queryBuilder.query();
+            for (Sample sample : page)
+                read += sample.getScanResults().isEmpty() ? 0 : 1;
+            if (page.size() < PAGE_SIZE)
+                break;
+        }
+        report("offset pages of " + PAGE_SIZE, start, read);
+        assertEquals(SAMPLES, read);
+    }
+
+}
@@ -0,0 +1,63 @@
+package es.uji.al259348.sliwandroid.core.repositories.sqlite;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.model.TestSamples;
+
+public class SQLiteSampleRepositoryTest extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "Sliw.db";
+
+    private SQLiteSampleRepository repository;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+        repository = new SQLiteSampleRepository(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        repository.onDestroy();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private static Sample sample(String id, Long date) {
+        Sample sample = TestSamples.sample(date == null ? null : new Date(date));
+        sample.setId(id);
+        return sample;
+    }
+
+    private List<String> streamIds(int pageSize) {
+        List<String> ids = new ArrayList<>();
+        for (Sample sample : repository.streamOldest(pageSize))
+            ids.add(sample.getId());
+        return ids;
+    }
+
+    public void testPagesGoOnAfterSamplesWithoutADate() {
+        repository.saveAll(Arrays.asList(
+                sample("e", 2000L),
+                sample("b", null),
+                sample("d", 1000L),
+                sample("a", null),
+                sample("c", 1000L)
+        ));
+
+        List<String> expected = Arrays.asList("a", "b", "c", "d", "e");
+        // Pages that end on a sample without a date, on one with a date and on the last one.
+        for (int pageSize = 1; pageSize <= 5; pageSize++)
+            assertEquals("Pages of " + pageSize, expected, streamIds(pageSize));
+
+        assertEquals(TestSamples.SCAN_RESULTS, repository.streamOldest(1).iterator().next().getScanResults().size());
+    }
+
+}
@@ -0,0 +1,117 @@
+package es.uji.al259348.sliwandroid.core.repositories.sqlite;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.j256.ormlite.dao.RuntimeExceptionDao;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * Upgrades a database written by the previous versions of the app. The test app has its
+ * own database, so the one of the app isn't touched.
+ */
+public class SQLiteSliwDatabaseUpgradeTest extends AndroidTestCase {
+
+    private static final String DATABASE_NAME = "Sliw.db";
+
+    // The schema ORMLite created for the model up to version 3, without indexes.
+    private static final String[] SCHEMA_V3 = {
+            "CREATE TABLE `samples` (`id` VARCHAR , `userId` VARCHAR , `deviceId` VARCHAR , `location` VARCHAR , `date` VARCHAR , `valid` SMALLINT , PRIMARY KEY (`id`) )",
+            "CREATE TABLE `wifiScanResults` (`id` INTEGER PRIMARY KEY AUTOINCREMENT , `SSID` VARCHAR , `BSSID` VARCHAR , `level` INTEGER , `sample_id` VARCHAR )"
+    };
+
+    private SQLiteSliwDatabase helper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (helper != null)
+            helper.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private void createDatabase(int version) {
+        SQLiteDatabase db = getContext().openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+        for (String sql : SCHEMA_V3)
+            db.execSQL(sql);
+
+        db.execSQL("INSERT INTO `samples` VALUES ('s1', 'u1', 'd1', 'kitchen', '2015-12-13 10:00:00.000000', 1)");
+        db.execSQL("INSERT INTO `samples` VALUES ('s2', 'u1', 'd1', NULL, '2015-12-13 10:01:00.000000', 0)");
+        db.execSQL("INSERT INTO `wifiScanResults` (`SSID`, `BSSID`, `level`, `sample_id`) VALUES ('a', '00:11:22:33:44:55', -40, 's1')");
+        db.execSQL("INSERT INTO `wifiScanResults` (`SSID`, `BSSID`, `level`, `sample_id`) VALUES ('b', '00:11:22:33:44:66', -70, 's1')");
+        db.execSQL("INSERT INTO `wifiScanResults` (`SSID`, `BSSID`, `level`, `sample_id`) VALUES ('a', '00:11:22:33:44:55', -55, 's2')");
+
+        db.setVersion(version);
+        db.close();
+    }
+
+    private SQLiteDatabase open() {
+        helper = new SQLiteSliwDatabase(getContext());
+        return helper.getWritableDatabase();
+    }
+
+    private static Set<String> indexes(SQLiteDatabase db) {
+        Set<String> indexes = new HashSet<>();
+        Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'", null);
+        try {
+            while (cursor.moveToNext())
+                indexes.add(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+        return indexes;
+    }
+
+    public void testUpgradeFromVersion3KeepsTheSamples() {
+        createDatabase(3);
+
+        SQLiteDatabase db = open();
+        assertEquals(4, db.getVersion());
+
+        Set<String> indexes = indexes(db);
+        assertTrue(indexes.contains("wifiScanResults_sample_idx"));
+        assertTrue(indexes.contains("samples_date_idx"));
+
+        RuntimeExceptionDao<Sample, String> dao = helper.getRuntimeExceptionDao(Sample.class);
+        assertEquals(2, dao.countOf());
+
+        Sample sample = dao.queryForId("s1");
+        assertEquals("u1", sample.getUserId());
+        assertEquals("kitchen", sample.getLocation());
+        assertTrue(sample.isValid());
+        assertNotNull(sample.getDate());
+        assertEquals(2, sample.getScanResults().size());
+
+        assertEquals(1, dao.queryForId("s2").getScanResults().size());
+    }
+
+    public void testUpgradeFromVersion2RecreatesTheTables() {
+        createDatabase(2);
+
+        SQLiteDatabase db = open();
+        assertEquals(4, db.getVersion());
+        assertTrue(indexes(db).contains("samples_date_idx"));
+        assertEquals(0, helper.getRuntimeExceptionDao(Sample.class).countOf());
+    }
+
+    public void testNewDatabaseHasTheIndexes() {
+        SQLiteDatabase db = open();
+
+        Set<String> indexes = indexes(db);
+        assertTrue(indexes.contains("wifiScanResults_sample_idx"));
+        assertTrue(indexes.contains("samples_date_idx"));
+    }
+
+}
@@ -8,6 +8,8 @@ import android.util.Log;
 import es.uji.al259348.sliwandroid.core.model.User;
 import es.uji.al259348.sliwandroid.core.services.AlarmService;
 import es.uji.al259348.sliwandroid.core.services.AlarmServiceImpl;
+import es.uji.al259348.sliwandroid.core.services.MotionService;
+import es.uji.al259348.sliwandroid.core.services.MotionServiceImpl;
 import es.uji.al259348.sliwandroid.core.services.UserService;
 import es.uji.al259348.sliwandroid.core.services.UserServiceImpl;
 
@@ -27,9 +29,12 @@ public class BootCompletedReceiver extends BroadcastReceiver {
 
             if (user != null) {
                 if (user.isConfigured()) {
-                    Log.d("BootCompletedReceiver", "Setting alarm for TakeSampleReceiver...");
+                    Log.d("BootCompletedReceiver", "Restoring alarm for TakeSampleReceiver...");
                     AlarmService alarmService = new AlarmServiceImpl(context.getApplicationContext());
-                    alarmService.setTakeSampleAlarm();
+                    alarmService.restoreTakeSampleAlarm();
+
+                    MotionService motionService = new MotionServiceImpl(context.getApplicationContext());
+                    motionService.startMonitoring();
                 } else {
                     Log.d("BootCompletedReceiver", "The user isn't configured yet, so the alarm is not necessary.");
                 }
@@ -0,0 +1,44 @@
+package es.uji.al259348.sliwandroid.core.android.receivers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.WifiManager;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.User;
+import es.uji.al259348.sliwandroid.core.services.SamplingService;
+import es.uji.al259348.sliwandroid.core.services.SamplingServiceImpl;
+import es.uji.al259348.sliwandroid.core.services.UserService;
+import es.uji.al259348.sliwandroid.core.services.UserServiceImpl;
+
+/**
+ * Harvests the scans requested by other apps or the system as samples, so the periodic
+ * sampling doesn't need to scan when they come often enough.
+ */
+public class ScanResultsReceiver extends BroadcastReceiver {
+
+    public ScanResultsReceiver() {
+
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (intent.getAction().equals(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION)) {
+
+            if (!context.getResources().getBoolean(R.bool.opportunisticSampling))
+                return;
+
+            UserService userService = new UserServiceImpl(context.getApplicationContext());
+            User user = userService.getCurrentLinkedUser();
+
+            // The samples are only taken while the periodic sampling is running.
+            if (user != null && user.isConfigured()) {
+                SamplingService samplingService = new SamplingServiceImpl(context.getApplicationContext());
+                samplingService.harvestScanResults();
+            }
+
+        }
+    }
+
+}
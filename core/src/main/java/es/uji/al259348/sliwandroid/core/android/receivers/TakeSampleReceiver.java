@@ -6,15 +6,13 @@ import android.content.Intent;
 import android.util.Log;
 
 import java.util.Date;
-import java.util.UUID;
 
-import es.uji.al259348.sliwandroid.core.services.DeviceService;
-import es.uji.al259348.sliwandroid.core.services.DeviceServiceImpl;
-import es.uji.al259348.sliwandroid.core.services.SampleService;
-import es.uji.al259348.sliwandroid.core.services.SampleServiceImpl;
-import es.uji.al259348.sliwandroid.core.services.UserService;
-import es.uji.al259348.sliwandroid.core.services.UserServiceImpl;
-import rx.schedulers.Schedulers;
+import es.uji.al259348.sliwandroid.core.services.AlarmService;
+import es.uji.al259348.sliwandroid.core.services.AlarmServiceImpl;
+import es.uji.al259348.sliwandroid.core.services.MotionService;
+import es.uji.al259348.sliwandroid.core.services.MotionServiceImpl;
+import es.uji.al259348.sliwandroid.core.services.SamplingService;
+import es.uji.al259348.sliwandroid.core.services.SamplingServiceImpl;
 
 public class TakeSampleReceiver extends BroadcastReceiver {
 
@@ -26,41 +24,21 @@ public class TakeSampleReceiver extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         Log.d("TakeSampleReceiver", "onReceive: " + (new Date()).toString());
 
-        SampleService sampleService = new SampleServiceImpl(context.getApplicationContext());
-        DeviceService deviceService = new DeviceServiceImpl(context.getApplicationContext());
-        UserService userService = new UserServiceImpl(context.getApplicationContext());
-
-        sampleService.take()
-                .doOnError(Throwable::printStackTrace)
-                .doOnNext(sample -> {
-
-                    String sampleId = UUID.randomUUID().toString();
-                    String deviceId = deviceService.getId();
-                    String userId = userService.getCurrentLinkedUserId();
-
-                    sample.setId(sampleId);
-                    sample.setUserId(userId);
-                    sample.setDeviceId(deviceId);
-
-                    Log.d("TakeSampleReceiver", "Sample: " + sample);
-
-                    sampleService.publish(sample)
-                            .subscribeOn(Schedulers.newThread())
-                            .observeOn(Schedulers.newThread())
-                            .subscribe(
-                                    response -> {
-                                        Log.d("TakeSampleReceiver", "The sample has been published (next)");
-                                    },
-                                    throwable -> {
-                                        Log.d("TakeSampleReceiver", "The sample couldn't be published.");
-                                        Log.d("TakeSampleReceiver", "Storing the sample locally...");
-                                        sampleService.save(sample);
-                                    },
-                                    () -> Log.d("TakeSampleReceiver", "The sample has been published (completed)")
-                            );
-
-                })
-                .subscribe();
+        // The next alarm is set before anything can fail, the sample may shorten it afterwards.
+        AlarmService alarmService = new AlarmServiceImpl(context.getApplicationContext());
+        alarmService.onTakeSampleAlarm();
+
+        // The monitor is started again in case it has been killed.
+        MotionService motionService = new MotionServiceImpl(context.getApplicationContext());
+        motionService.startMonitoring();
+        if (motionService.isStill()) {
+            Log.d("TakeSampleReceiver", "The user is still, no sample is taken.");
+            alarmService.onSampleTaken(true);
+            return;
+        }
+
+        SamplingService samplingService = new SamplingServiceImpl(context.getApplicationContext());
+        samplingService.takeScheduledSample();
     }
 
 }
@@ -0,0 +1,143 @@
+package es.uji.al259348.sliwandroid.core.android.services;
+
+import android.app.Service;
+import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.hardware.TriggerEvent;
+import android.hardware.TriggerEventListener;
+import android.os.IBinder;
+import android.util.Log;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.services.AlarmService;
+import es.uji.al259348.sliwandroid.core.services.AlarmServiceImpl;
+import es.uji.al259348.sliwandroid.core.services.MotionDetector;
+import es.uji.al259348.sliwandroid.core.services.MotionService;
+import es.uji.al259348.sliwandroid.core.services.MotionServiceImpl;
+
+/**
+ * Monitors the motion of the user while the samples are being taken.
+ *
+ * The readings of the accelerometer are batched by the sensor hub, so the device isn't
+ * woken up for them. Once the user is still the accelerometer is turned off, if the device
+ * has a significant motion sensor, and that wakes the device up when the user moves again.
+ * Then a sample is taken right away and the periodic sampling is resumed.
+ */
+public class MotionMonitorService extends Service implements SensorEventListener, MotionDetector.Listener {
+
+    private class SignificantMotionListener extends TriggerEventListener {
+
+        @Override
+        public void onTrigger(TriggerEvent event) {
+            Log.d("MotionMonitorService", "Significant motion.");
+            motionDetector.onSignificantMotion(event.timestamp);
+        }
+
+    }
+
+    private SensorManager sensorManager;
+    private Sensor accelerometer;
+    private Sensor significantMotion;
+    private SignificantMotionListener significantMotionListener;
+
+    private MotionDetector motionDetector;
+    private MotionService motionService;
+    private AlarmService alarmService;
+
+    private boolean accelerometerRegistered;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Log.d("MotionMonitorService", "MotionMonitorService onCreate");
+
+        sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
+        accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        significantMotion = sensorManager.getDefaultSensor(Sensor.TYPE_SIGNIFICANT_MOTION);
+        significantMotionListener = new SignificantMotionListener();
+
+        motionService = new MotionServiceImpl(this);
+        alarmService = new AlarmServiceImpl(this);
+
+        motionDetector = new MotionDetector(
+                getResources().getInteger(R.integer.motionVarianceThresholdInThousandths) / 1000.0,
+                getResources().getInteger(R.integer.motionWindowInMillis),
+                1000L * getResources().getInteger(R.integer.motionStillAfterInSeconds)
+        );
+        motionDetector.setListener(this);
+
+        // Until the readings say otherwise, the user may be moving.
+        motionService.setStill(false);
+        registerAccelerometer();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        Log.d("MotionMonitorService", "MotionMonitorService onDestroy");
+        unregisterAccelerometer();
+        if (significantMotion != null)
+            sensorManager.cancelTriggerSensor(significantMotionListener, significantMotion);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        return START_STICKY;
+    }
+
+    private void registerAccelerometer() {
+        if (accelerometer == null || accelerometerRegistered)
+            return;
+
+        int maxReportLatencyUs = 1000000 * getResources().getInteger(R.integer.motionBatchLatencyInSeconds);
+        sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_NORMAL, maxReportLatencyUs);
+        accelerometerRegistered = true;
+        Log.d("MotionMonitorService", "Accelerometer registered.");
+    }
+
+    private void unregisterAccelerometer() {
+        if (accelerometerRegistered) {
+            sensorManager.unregisterListener(this);
+            accelerometerRegistered = false;
+            Log.d("MotionMonitorService", "Accelerometer unregistered.");
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        motionDetector.onAcceleration(event.timestamp, event.values[0], event.values[1], event.values[2]);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+
+    }
+
+    @Override
+    public void onStill() {
+        motionService.setStill(true);
+
+        if (significantMotion != null) {
+            unregisterAccelerometer();
+            sensorManager.requestTriggerSensor(significantMotionListener, significantMotion);
+        }
+    }
+
+    @Override
+    public void onMoving() {
+        motionService.setStill(false);
+        registerAccelerometer();
+
+        Log.d("MotionMonitorService", "The user moves again, taking a sample...");
+        alarmService.resumeTakeSampleAlarm();
+    }
+
+}
@@ -5,30 +5,50 @@ import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.services.SampleDrain;
 import es.uji.al259348.sliwandroid.core.services.SampleService;
 import es.uji.al259348.sliwandroid.core.services.SampleServiceImpl;
+import rx.Observable;
+import rx.Subscription;
 import rx.schedulers.Schedulers;
 
+/**
+ * Publishes the samples stored locally.
+ *
+ * There is at most one drain running. The start commands received while it runs are
+ * merged into it: once the local samples have been read, they are read again and the
+ * ones not yet claimed are fed to the same drain. The samples are read page by page as
+ * the drain needs them.
+ */
 public class PublishSamplesService extends Service {
 
     private SampleService sampleService;
-    private Queue<Sample> samples;
+    private SampleDrain sampleDrain;
+
+    private Subscription drainSubscription;
+    private Set<String> inFlightSampleIds;
+    private boolean rescanRequested;
 
     @Override
     public void onCreate() {
         super.onCreate();
         Log.d("PublishSamplesService", "PublishSampleService onCreate");
         sampleService = new SampleServiceImpl(this);
+        sampleDrain = new SampleDrain(this, sampleService);
+        inFlightSampleIds = Collections.newSetFromMap(new ConcurrentHashMap<>());
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         Log.d("PublishSamplesService", "PublishSampleService onDestroy");
+        if (drainSubscription != null)
+            drainSubscription.unsubscribe();
         sampleService.onDestroy();
     }
 
@@ -38,7 +58,13 @@ public class PublishSamplesService extends Service {
     }
 
     @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
+    public synchronized int onStartCommand(Intent intent, int flags, int startId) {
+
+        if (drainSubscription != null) {
+            Log.d("PublishSamplesService", "Ya se están publicando muestras, se unirá esta petición a la publicación en curso.");
+            rescanRequested = true;
+            return START_STICKY;
+        }
 
         long numberOfSamples = sampleService.countLocalSamples();
         if (numberOfSamples > 0) {
@@ -54,35 +80,58 @@ public class PublishSamplesService extends Service {
 
     private void publishSamples() {
         Log.d("PublishSamplesService", "Procedemos a publicar las muestras.");
-        samples = new LinkedList<>(sampleService.getLocalSamples());
-        publishNextSample();
-    }
 
-    private void publishNextSample() {
-        Sample sample = samples.poll();
-        if (sample != null)
-            publishSample(sample);
-        else
-            stopSelf();
-    }
+        Observable<Sample> samples = Observable.defer(this::claimLocalSamples)
+                .repeatWhen(passes -> passes.takeWhile(pass -> consumeRescanRequest()));
 
-    private void publishSample(Sample sample) {
-        Log.d("PublishSamplesService", "Publicando muestra: " + sample.toString());
-        sampleService.publish(sample)
+        drainSubscription = sampleDrain.drain(samples)
                 .subscribeOn(Schedulers.newThread())
                 .observeOn(Schedulers.newThread())
                 .subscribe(
-                        response -> {
-                            Log.d("PublishSamplesService", "Muestra publicada.");
-                            Log.d("PublishSamplesService", "Eliminando muestra local...");
-                            sampleService.remove(sample);
-                        },
+                        this::onBatchFinished,
                         throwable -> {
-                            Log.d("PublishSamplesService", "La muestra no ha podido publicarse.");
+                            Log.d("PublishSamplesService", "Las muestras no han podido publicarse.");
                             throwable.printStackTrace();
+                            onDrainFinished();
                         },
-                        this::publishNextSample
+                        this::onDrainFinished
                 );
     }
 
+    /**
+     * Read the local samples skipping the ones already in flight, which are claimed
+     * by the drain as they are read.
+     */
+    private Observable<Sample> claimLocalSamples() {
+        return sampleService.streamLocalSamples()
+                .filter(sample -> inFlightSampleIds.add(sample.getId()));
+    }
+
+    private synchronized boolean consumeRescanRequest() {
+        boolean requested = rescanRequested;
+        rescanRequested = false;
+        return requested;
+    }
+
+    private void onBatchFinished(SampleDrain.Progress progress) {
+        Log.d("PublishSamplesService", "Progreso: " + progress);
+
+        for (Sample sample : progress.getLastBatch())
+            inFlightSampleIds.remove(sample.getId());
+    }
+
+    private synchronized void onDrainFinished() {
+        Log.d("PublishSamplesService", "Publicación terminada.");
+        Log.d("PublishSamplesService", "Muestras descartadas localmente: " + sampleService.getEvictionCounters());
+        drainSubscription = null;
+        inFlightSampleIds.clear();
+
+        if (consumeRescanRequest() && sampleService.countLocalSamples() > 0) {
+            publishSamples();
+            return;
+        }
+
+        stopSelf();
+    }
+
 }
@@ -1,13 +1,17 @@
 package es.uji.al259348.sliwandroid.core.controller;
 
 import android.content.Context;
+import android.util.Log;
 
 import java.util.ListIterator;
 import java.util.UUID;
 
 import es.uji.al259348.sliwandroid.core.model.Config;
+import es.uji.al259348.sliwandroid.core.model.Location;
 import es.uji.al259348.sliwandroid.core.model.User;
 import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.services.LocationClassifier;
+import es.uji.al259348.sliwandroid.core.services.LocationClassifierImpl;
 import es.uji.al259348.sliwandroid.core.services.MessagingService;
 import es.uji.al259348.sliwandroid.core.services.MessagingServiceImpl;
 import es.uji.al259348.sliwandroid.core.services.UserService;
@@ -15,6 +19,8 @@ import es.uji.al259348.sliwandroid.core.services.UserServiceImpl;
 import es.uji.al259348.sliwandroid.core.services.WifiService;
 import es.uji.al259348.sliwandroid.core.services.WifiServiceImpl;
 import es.uji.al259348.sliwandroid.core.view.ConfigView;
+import rx.Observable;
+import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.schedulers.Schedulers;
 
@@ -25,12 +31,14 @@ public class ConfigControllerImpl implements ConfigController {
     private MessagingService messagingService;
     private UserService userService;
     private WifiService wifiService;
+    private LocationClassifier locationClassifier;
 
     private User user;
     private Config config;
 
     private ListIterator<Config.ConfigStep> configStepsIter;
     private Config.ConfigStep currentStep;
+    private Subscription scanSubscription;
 
     public ConfigControllerImpl(ConfigView configView) {
         this.configView = configView;
@@ -39,23 +47,22 @@ public class ConfigControllerImpl implements ConfigController {
         this.messagingService = new MessagingServiceImpl(context);
         this.userService = new UserServiceImpl(context, messagingService);
         this.wifiService = new WifiServiceImpl(context);
+        this.locationClassifier = new LocationClassifierImpl(context);
 
         this.user = userService.getCurrentLinkedUser();
-        this.config = new Config(user);
+        this.config = userService.getPendingConfig(user);
     }
 
     @Override
     public void onDestroy() {
+        stopScan();
         messagingService.onDestroy();
     }
 
     @Override
     public void startConfig() {
         configStepsIter = config.getSteps().listIterator();
-        if (configStepsIter.hasNext()) {
-            currentStep = configStepsIter.next();
-            configView.onNextStep(currentStep.getLocation().getConfigMsg());
-        }
+        onStepFinished();
     }
 
     @Override
@@ -73,19 +80,35 @@ public class ConfigControllerImpl implements ConfigController {
     }
 
     private void performScan() {
-        wifiService.takeSample()
+        Location location = currentStep.getLocation();
+
+        // A single stream of scans for the whole step, each training sample comes from its own scan.
+        // The sample is persisted before it is counted, so it survives if the configuration is interrupted,
+        // and in background, since the scans are delivered on the main thread.
+        scanSubscription = wifiService.scanStream(0)
+                .take(currentStep.getRemainingSamples())
                 .subscribeOn(Schedulers.newThread())
+                .observeOn(Schedulers.io())
+                .doOnNext(sample -> {
+                    sample.setId(UUID.randomUUID().toString());
+                    sample.setUserId(user.getId());
+                    sample.setDeviceId(wifiService.getMacAddress());
+                    sample.setLocation(location.getName());
+                    sample.setValid(true);
+                    userService.saveConfigSample(sample);
+                })
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(this::onScanPerformed);
+                .subscribe(this::onScanPerformed, this::handleError);
     }
 
-    private void onScanPerformed(Sample sample) {
+    private void stopScan() {
+        if (scanSubscription != null) {
+            scanSubscription.unsubscribe();
+            scanSubscription = null;
+        }
+    }
 
-        sample.setId(UUID.randomUUID().toString());
-        sample.setUserId(user.getId());
-        sample.setDeviceId(wifiService.getMacAddress());
-        sample.setLocation(currentStep.getLocation().getName());
-        sample.setValid(true);
+    private void onScanPerformed(Sample sample) {
 
         currentStep.addSample(sample);
 
@@ -93,25 +116,42 @@ public class ConfigControllerImpl implements ConfigController {
         configView.onStepProgressUpdated(progress);
 
         if (currentStep.isCompleted()) {
+            stopScan();
             onStepFinished();
-        } else {
-            performScan();
         }
     }
 
     private void onStepFinished() {
-        if (configStepsIter.hasNext()) {
+        // The steps completed before the configuration was interrupted are skipped.
+        while (configStepsIter.hasNext()) {
             currentStep = configStepsIter.next();
-            configView.onNextStep(currentStep.getLocation().getConfigMsg());
-        } else {
-            configView.onAllStepsFinished();
+            if (!currentStep.isCompleted()) {
+                configView.onNextStep(currentStep.getLocation().getConfigMsg());
+                return;
+            }
         }
+        configView.onAllStepsFinished();
     }
 
     private void onConfigFinished() {
         user.setConfigured(true);
         userService.setCurrentLinkedUser(user);
         configView.onConfigFinished();
+        trainLocationClassifier();
+    }
+
+    /**
+     * Train the classifier in background once the configuration is saved, its errors don't
+     * affect the configuration, which is done.
+     */
+    private void trainLocationClassifier() {
+        Observable.<Void>create(subscriber -> {
+            locationClassifier.train(config.getSamples());
+            subscriber.onCompleted();
+        })
+                .subscribeOn(Schedulers.io())
+                .subscribe(aVoid -> {
+                }, throwable -> Log.d("ConfigController", "Error del clasificador local: " + throwable.getMessage()));
     }
 
     private void handleError(Throwable throwable) {
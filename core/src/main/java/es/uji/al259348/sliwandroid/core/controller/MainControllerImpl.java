@@ -18,8 +18,12 @@ import es.uji.al259348.sliwandroid.core.services.AlarmService;
 import es.uji.al259348.sliwandroid.core.services.AlarmServiceImpl;
 import es.uji.al259348.sliwandroid.core.services.DeviceService;
 import es.uji.al259348.sliwandroid.core.services.DeviceServiceImpl;
+import es.uji.al259348.sliwandroid.core.services.LocationClassifier;
+import es.uji.al259348.sliwandroid.core.services.LocationClassifierImpl;
 import es.uji.al259348.sliwandroid.core.services.MessagingService;
 import es.uji.al259348.sliwandroid.core.services.MessagingServiceImpl;
+import es.uji.al259348.sliwandroid.core.services.MotionService;
+import es.uji.al259348.sliwandroid.core.services.MotionServiceImpl;
 import es.uji.al259348.sliwandroid.core.services.SampleService;
 import es.uji.al259348.sliwandroid.core.services.SampleServiceImpl;
 import es.uji.al259348.sliwandroid.core.services.UserService;
@@ -27,6 +31,7 @@ import es.uji.al259348.sliwandroid.core.services.UserServiceImpl;
 import es.uji.al259348.sliwandroid.core.services.WifiService;
 import es.uji.al259348.sliwandroid.core.services.WifiServiceImpl;
 import es.uji.al259348.sliwandroid.core.view.MainView;
+import rx.Observable;
 import rx.android.schedulers.AndroidSchedulers;
 import rx.schedulers.Schedulers;
 
@@ -39,7 +44,9 @@ public class MainControllerImpl implements MainController {
     private UserService userService;
     private WifiService wifiService;
     private AlarmService alarmService;
+    private MotionService motionService;
     private SampleService sampleService;
+    private LocationClassifier locationClassifier;
 
     public MainControllerImpl(MainView mainView) {
         this.mainView = mainView;
@@ -50,7 +57,9 @@ public class MainControllerImpl implements MainController {
         this.userService = new UserServiceImpl(context, messagingService);
         this.wifiService = new WifiServiceImpl(context);
         this.alarmService = new AlarmServiceImpl(context);
-        this.sampleService = new SampleServiceImpl(context);
+        this.motionService = new MotionServiceImpl(context);
+        this.sampleService = new SampleServiceImpl(context, messagingService);
+        this.locationClassifier = new LocationClassifierImpl(context);
     }
 
     @Override
@@ -72,6 +81,8 @@ public class MainControllerImpl implements MainController {
             mainView.hasToConfigure();
         } else {
             alarmService.setTakeSampleAlarm();
+            motionService.startMonitoring();
+            loadLocationClassifier();
             mainView.isOk();
         }
     }
@@ -102,6 +113,7 @@ public class MainControllerImpl implements MainController {
     public void unlink() {
         userService.setCurrentLinkedUser(null);
         alarmService.cancelTakeSampleAlarm();
+        motionService.stopMonitoring();
     }
 
     @Override
@@ -131,6 +143,9 @@ public class MainControllerImpl implements MainController {
         sample.setUserId(userService.getCurrentLinkedUserId());
         sample.setDeviceId(deviceService.getId());
 
+        if (sample.isValid())
+            onLocationClassifier(() -> locationClassifier.addTrainingSample(sample));
+
         saveSample(sample);
         mainView.onTakeSampleCompleted();
     }
@@ -152,11 +167,49 @@ public class MainControllerImpl implements MainController {
                             Log.d("MainController", "Storing the sample locally...");
                             sampleService.save(sample);
                             mainView.onSampleSavedLocally();
+                            classifyLocally(sample);
                         },
                         () -> Log.d("MainController", "The sample has been published (completed)")
                 );
     }
 
+    /**
+     * The model of the classifier is built from the whole training set, so it is loaded
+     * in background before it is needed.
+     */
+    private void loadLocationClassifier() {
+        onLocationClassifier(locationClassifier::load);
+    }
+
+    /**
+     * Run an operation of the classifier in background, since it may wait for the model
+     * to be built.
+     */
+    private void onLocationClassifier(Runnable operation) {
+        Observable.<Void>create(subscriber -> {
+            operation.run();
+            subscriber.onCompleted();
+        })
+                .subscribeOn(Schedulers.io())
+                .subscribe(aVoid -> {
+                }, throwable -> Log.d("MainController", "Error del clasificador local: " + throwable.getMessage()));
+    }
+
+    private void classifyLocally(Sample sample) {
+        Observable.<String>create(subscriber -> {
+            subscriber.onNext(locationClassifier.classify(sample));
+            subscriber.onCompleted();
+        })
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(location -> {
+                    if (location != null) {
+                        Log.d("MainController", "La muestra ha sido clasificada localmente: " + location);
+                        mainView.onSampleClassified(location);
+                    }
+                }, throwable -> Log.d("MainController", "The sample couldn't be classified locally."));
+    }
+
     private void handleError(Throwable throwable) {
         mainView.onError(throwable);
     }
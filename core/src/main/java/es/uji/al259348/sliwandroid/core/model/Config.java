@@ -52,6 +52,11 @@ public class Config {
             return samples.size() * PROGRESS_PER_SAMPLE;
         }
 
+        @JsonIgnore
+        public int getRemainingSamples() {
+            return Math.max(0, NUM_SAMPLES_PER_STEP - samples.size());
+        }
+
         @JsonIgnore
         public boolean isCompleted() {
             return samples.size() >= NUM_SAMPLES_PER_STEP;
@@ -0,0 +1,236 @@
+package es.uji.al259348.sliwandroid.core.model;
+
+import android.net.wifi.ScanResult;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Compact representation of a Wi-Fi scan: the BSSIDs packed in longs and sorted, with
+ * the RSSI of each one in a parallel array.
+ *
+ * The distances treat a fingerprint as a vector with a component per access point, the
+ * RSSI relative to {@link #MISSING_RSSI}, so an access point that hasn't been seen is 0.
+ * They are computed merging the sorted BSSIDs of both fingerprints, without allocating.
+ *
+ * A fingerprint is immutable.
+ */
+public final class Fingerprint {
+
+    /**
+     * The RSSI an access point that hasn't been seen is taken at. Weaker levels are raised to it.
+     */
+    public static final int MISSING_RSSI = -100;
+
+    private static final int MAX_RSSI = 0;
+
+    private final long[] bssids;
+    private final byte[] rssi;
+
+    private Fingerprint(long[] bssids, byte[] rssi) {
+        this.bssids = bssids;
+        this.rssi = rssi;
+    }
+
+    public static Fingerprint of(List<ScanResult> scanResults) {
+        long[] packed = new long[scanResults.size()];
+        int n = 0;
+        for (int i = 0; i < scanResults.size(); i++) {
+            ScanResult scanResult = scanResults.get(i);
+            if (isBssid(scanResult.BSSID))
+                packed[n++] = pack(parseBssid(scanResult.BSSID), scanResult.level);
+        }
+        return unpack(packed, n);
+    }
+
+    public static Fingerprint of(Sample sample) {
+        Collection<Sample.WifiScanResult> scanResults = sample.getScanResults();
+
+        long[] packed = new long[scanResults.size()];
+        int n = 0;
+        for (Sample.WifiScanResult scanResult : scanResults) {
+            if (isBssid(scanResult.BSSID))
+                packed[n++] = pack(parseBssid(scanResult.BSSID), scanResult.level);
+        }
+        return unpack(packed, n);
+    }
+
+    /**
+     * The BSSID takes the 48 upper bits and the RSSI the 8 lower ones, so sorting the
+     * packed values sorts them by BSSID.
+     */
+    private static long pack(long bssid, int level) {
+        int rssi = Math.max(MISSING_RSSI, Math.min(MAX_RSSI, level));
+        return (bssid << 8) | (rssi - MISSING_RSSI);
+    }
+
+    /**
+     * Sort the packed values and split them in place. When an access point appears twice,
+     * the strongest RSSI is kept.
+     */
+    private static Fingerprint unpack(long[] packed, int n) {
+        Arrays.sort(packed, 0, n);
+
+        byte[] rssi = new byte[n];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            long bssid = packed[i] >>> 8;
+            int level = (int) (packed[i] & 0xFF) + MISSING_RSSI;
+            if (size > 0 && packed[size - 1] == bssid) {
+                rssi[size - 1] = (byte) Math.max(rssi[size - 1], level);
+            } else {
+                packed[size] = bssid;
+                rssi[size] = (byte) level;
+                size++;
+            }
+        }
+
+        if (size == packed.length)
+            return new Fingerprint(packed, rssi);
+        return new Fingerprint(Arrays.copyOf(packed, size), Arrays.copyOf(rssi, size));
+    }
+
+    public int size() {
+        return bssids.length;
+    }
+
+    public long getBssid(int i) {
+        return bssids[i];
+    }
+
+    public int getRssi(int i) {
+        return rssi[i];
+    }
+
+    /**
+     * Get the RSSI of the given access point, or {@link #MISSING_RSSI} if it hasn't been seen.
+     */
+    public int getRssiOf(long bssid) {
+        int i = Arrays.binarySearch(bssids, bssid);
+        return (i < 0) ? MISSING_RSSI : rssi[i];
+    }
+
+    public long squaredNorm() {
+        long norm = 0;
+        for (byte level : rssi) {
+            long d = level - MISSING_RSSI;
+            norm += d * d;
+        }
+        return norm;
+    }
+
+    public long dot(Fingerprint other) {
+        long dot = 0;
+        int i = 0, j = 0;
+        while (i < bssids.length && j < other.bssids.length) {
+            if (bssids[i] < other.bssids[j]) {
+                i++;
+            } else if (other.bssids[j] < bssids[i]) {
+                j++;
+            } else {
+                dot += (long) (rssi[i++] - MISSING_RSSI) * (other.rssi[j++] - MISSING_RSSI);
+            }
+        }
+        return dot;
+    }
+
+    public long squaredEuclideanDistance(Fingerprint other) {
+        long distance = 0;
+        int i = 0, j = 0;
+        while (i < bssids.length || j < other.bssids.length) {
+            long d;
+            if (j >= other.bssids.length || (i < bssids.length && bssids[i] < other.bssids[j])) {
+                d = rssi[i++] - MISSING_RSSI;
+            } else if (i >= bssids.length || other.bssids[j] < bssids[i]) {
+                d = other.rssi[j++] - MISSING_RSSI;
+            } else {
+                d = rssi[i++] - other.rssi[j++];
+            }
+            distance += d * d;
+        }
+        return distance;
+    }
+
+    public double euclideanDistance(Fingerprint other) {
+        return Math.sqrt(squaredEuclideanDistance(other));
+    }
+
+    /**
+     * Get 1 minus the Tanimoto similarity, dot / (|a|^2 + |b|^2 - dot), which is 0 for
+     * equal fingerprints and 1 for fingerprints without access points in common.
+     */
+    public double tanimotoDistance(Fingerprint other) {
+        long dot = dot(other);
+        long denominator = squaredNorm() + other.squaredNorm() - dot;
+        return (denominator == 0) ? 0 : 1 - (double) dot / denominator;
+    }
+
+    public static boolean isBssid(String bssid) {
+        if (bssid == null || bssid.length() != 17)
+            return false;
+
+        for (int i = 0; i < 17; i++) {
+            char c = bssid.charAt(i);
+            boolean valid = (i % 3 == 2) ? c == ':' : Character.digit(c, 16) >= 0;
+            if (!valid)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Pack a BSSID like "01:23:45:67:89:ab" in the 48 lower bits of a long.
+     *
+     * @throws IllegalArgumentException If the BSSID isn't a MAC address.
+     */
+    public static long parseBssid(String bssid) {
+        if (!isBssid(bssid))
+            throw new IllegalArgumentException("Malformed BSSID: " + bssid);
+
+        long value = 0;
+        for (int i = 0; i < 6; i++) {
+            int high = Character.digit(bssid.charAt(3 * i), 16);
+            int low = Character.digit(bssid.charAt(3 * i + 1), 16);
+            value = (value << 8) | (high << 4) | low;
+        }
+        return value;
+    }
+
+    public static String formatBssid(long bssid) {
+        StringBuilder sb = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            if (sb.length() > 0)
+                sb.append(':');
+            int b = (int) (bssid >>> shift) & 0xFF;
+            sb.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Fingerprint that = (Fingerprint) o;
+        return Arrays.equals(bssids, that.bssids) && Arrays.equals(rssi, that.rssi);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(bssids) + Arrays.hashCode(rssi);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Fingerprint{");
+        for (int i = 0; i < bssids.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(formatBssid(bssids[i])).append('=').append(rssi[i]);
+        }
+        return sb.append('}').toString();
+    }
+
+}
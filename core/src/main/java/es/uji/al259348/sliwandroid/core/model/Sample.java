@@ -29,7 +29,7 @@ public class Sample {
         public String BSSID;
         @DatabaseField
         public int level;
-        @DatabaseField(foreign = true)
+        @DatabaseField(foreign = true, index = true)
         @JsonIgnore
         public Sample sample;
 
@@ -63,7 +63,7 @@ public class Sample {
     private String deviceId;
     @DatabaseField
     private String location;
-    @DatabaseField
+    @DatabaseField(index = true)
     private Date date;
     @ForeignCollectionField(eager = true)
     private Collection<WifiScanResult> scanResults;
@@ -0,0 +1,219 @@
+package es.uji.al259348.sliwandroid.core.repositories;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * Keeps the samples stored by another repository within a maximum number and age.
+ *
+ * Every some saves the samples older than the maximum age are removed and, if there are
+ * still too many, the eviction policy chooses which ones are dropped. So the maximum number
+ * may be exceeded by the samples saved since the last eviction. The number of evicted
+ * samples is persisted so the data loss can be checked on the device.
+ */
+public class BoundedSampleRepository implements SampleRepository {
+
+    public static final String EVICTION_POLICY_OLDEST_FIRST = "oldestFirst";
+    public static final String EVICTION_POLICY_INVALID_FIRST = "invalidFirst";
+
+    private static final String SHARED_PREFERENCES_FILENAME = "SampleRepositorySharedPreferences";
+    private static final String SHARED_PREFERENCES_KEY_EVICTED_BY_CAPACITY = "evictedByCapacity";
+    private static final String SHARED_PREFERENCES_KEY_EVICTED_BY_AGE = "evictedByAge";
+    private static final String SHARED_PREFERENCES_KEY_SAVED_SINCE_EVICTION = "savedSinceEviction";
+
+    private static final int EVICTION_PAGE_SIZE = 100;
+
+    public static class Counters {
+
+        private final long evictedByCapacity;
+        private final long evictedByAge;
+
+        Counters(long evictedByCapacity, long evictedByAge) {
+            this.evictedByCapacity = evictedByCapacity;
+            this.evictedByAge = evictedByAge;
+        }
+
+        public long getEvictedByCapacity() {
+            return evictedByCapacity;
+        }
+
+        public long getEvictedByAge() {
+            return evictedByAge;
+        }
+
+        @Override
+        public String toString() {
+            return "Counters{" +
+                    "evictedByCapacity=" + evictedByCapacity +
+                    ", evictedByAge=" + evictedByAge +
+                    '}';
+        }
+
+    }
+
+    private SampleRepository repository;
+    private EvictionPolicy evictionPolicy;
+
+    private long maxSamples;
+    private long maxAgeMillis;
+    private int evictEvery;
+
+    private SharedPreferences sharedPreferences;
+
+    public BoundedSampleRepository(Context context, SampleRepository repository) {
+        this.repository = repository;
+        this.maxSamples = context.getResources().getInteger(R.integer.localSamplesMaxCount);
+        this.maxAgeMillis = 3600L * 1000 * context.getResources().getInteger(R.integer.localSamplesMaxAgeInHours);
+        this.evictEvery = context.getResources().getInteger(R.integer.localSamplesEvictionEvery);
+        this.evictionPolicy = createEvictionPolicy(context.getResources().getString(R.string.localSamplesEvictionPolicy));
+        this.sharedPreferences = context.getSharedPreferences(SHARED_PREFERENCES_FILENAME, Context.MODE_PRIVATE);
+    }
+
+    private static EvictionPolicy createEvictionPolicy(String name) {
+        switch (name) {
+            case EVICTION_POLICY_INVALID_FIRST:
+                return new InvalidFirstEvictionPolicy();
+            case EVICTION_POLICY_OLDEST_FIRST:
+                return new OldestFirstEvictionPolicy();
+            default:
+                throw new IllegalArgumentException("Unknown eviction policy: " + name);
+        }
+    }
+
+    public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+        this.evictionPolicy = evictionPolicy;
+    }
+
+    public void setLimits(long maxSamples, long maxAgeMillis) {
+        this.maxSamples = maxSamples;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Set the number of saved samples after which the limits are enforced.
+     */
+    public void setEvictEvery(int evictEvery) {
+        this.evictEvery = evictEvery;
+    }
+
+    public Counters getCounters() {
+        return new Counters(
+                sharedPreferences.getLong(SHARED_PREFERENCES_KEY_EVICTED_BY_CAPACITY, 0),
+                sharedPreferences.getLong(SHARED_PREFERENCES_KEY_EVICTED_BY_AGE, 0)
+        );
+    }
+
+    @Override
+    public void onDestroy() {
+        repository.onDestroy();
+    }
+
+    @Override
+    public Sample save(Sample sample) {
+        repository.save(sample);
+        onSaved(1);
+        return sample;
+    }
+
+    @Override
+    public List<Sample> saveAll(List<Sample> samples) {
+        repository.saveAll(samples);
+        onSaved(samples.size());
+        return samples;
+    }
+
+    /**
+     * Count the saved samples, which are persisted since a repository may only live for a
+     * sample, and enforce the limits every evictEvery samples.
+     */
+    private synchronized void onSaved(int saved) {
+        int savedSinceEviction = sharedPreferences.getInt(SHARED_PREFERENCES_KEY_SAVED_SINCE_EVICTION, 0) + saved;
+        boolean evict = savedSinceEviction >= evictEvery;
+
+        sharedPreferences.edit()
+                .putInt(SHARED_PREFERENCES_KEY_SAVED_SINCE_EVICTION, evict ? 0 : savedSinceEviction)
+                .apply();
+
+        if (evict)
+            evict();
+    }
+
+    /**
+     * Enforce the limits now.
+     */
+    public synchronized void evict() {
+        evictByAge();
+        evictByCapacity();
+    }
+
+    private void evictByAge() {
+        Date oldestAllowed = new Date(System.currentTimeMillis() - maxAgeMillis);
+
+        int expired = repository.removeOlderThan(oldestAllowed);
+        if (expired > 0) {
+            Log.d("SampleRepo", "Evicted " + expired + " samples older than " + oldestAllowed);
+            increment(SHARED_PREFERENCES_KEY_EVICTED_BY_AGE, expired);
+        }
+    }
+
+    private void evictByCapacity() {
+        long excess = repository.count() - maxSamples;
+        if (excess <= 0)
+            return;
+
+        List<Sample> victims = evictionPolicy.selectVictims(repository.streamOldest(EVICTION_PAGE_SIZE), (int) excess);
+        Log.d("SampleRepo", "The local storage is full, evicting " + victims.size() + " samples.");
+        repository.removeAll(victims);
+        increment(SHARED_PREFERENCES_KEY_EVICTED_BY_CAPACITY, victims.size());
+    }
+
+    private void increment(String key, long delta) {
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putLong(key, sharedPreferences.getLong(key, 0) + delta);
+        editor.apply();
+    }
+
+    @Override
+    public void remove(Sample sample) {
+        repository.remove(sample);
+    }
+
+    @Override
+    public void removeAll(Collection<Sample> samples) {
+        repository.removeAll(samples);
+    }
+
+    @Override
+    public int removeOlderThan(Date date) {
+        return repository.removeOlderThan(date);
+    }
+
+    @Override
+    public long count() {
+        return repository.count();
+    }
+
+    @Override
+    public Sample findById(String id) {
+        return repository.findById(id);
+    }
+
+    @Override
+    public List<Sample> findAll() {
+        return repository.findAll();
+    }
+
+    @Override
+    public Iterable<Sample> streamOldest(int pageSize) {
+        return repository.streamOldest(pageSize);
+    }
+
+}
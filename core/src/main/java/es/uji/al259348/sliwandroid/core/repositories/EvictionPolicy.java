@@ -0,0 +1,21 @@
+package es.uji.al259348.sliwandroid.core.repositories;
+
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * Decides which samples are dropped when the local storage is full.
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Choose the samples to be evicted.
+     *
+     * @param oldestFirst The stored samples, from the oldest to the newest.
+     * @param count The number of samples to be evicted.
+     * @return Returns at most count samples to be evicted.
+     */
+    List<Sample> selectVictims(Iterable<Sample> oldestFirst, int count);
+
+}
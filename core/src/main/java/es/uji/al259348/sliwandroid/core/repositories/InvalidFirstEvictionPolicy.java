@@ -0,0 +1,46 @@
+package es.uji.al259348.sliwandroid.core.repositories;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * Evicts the oldest samples that aren't valid, i.e. that haven't been labelled with a
+ * location by the user. The valid samples are only evicted, oldest first, when there
+ * aren't enough invalid ones among the oldest samples.
+ */
+public class InvalidFirstEvictionPolicy implements EvictionPolicy {
+
+    /**
+     * The invalid samples are looked for among this many samples per victim at most, so a
+     * store full of valid samples isn't read whole.
+     */
+    private static final int MAX_SCANNED_PER_VICTIM = 20;
+
+    @Override
+    public List<Sample> selectVictims(Iterable<Sample> oldestFirst, int count) {
+        List<Sample> victims = new ArrayList<>(count);
+        List<Sample> valid = new ArrayList<>();
+        long maxScanned = (long) count * MAX_SCANNED_PER_VICTIM;
+        long scanned = 0;
+
+        for (Sample sample : oldestFirst) {
+            if (victims.size() >= count || scanned++ >= maxScanned)
+                break;
+
+            if (sample.isValid()) {
+                if (valid.size() < count)
+                    valid.add(sample);
+            } else {
+                victims.add(sample);
+            }
+        }
+
+        for (int i = 0; victims.size() < count && i < valid.size(); i++)
+            victims.add(valid.get(i));
+
+        return victims;
+    }
+
+}
@@ -0,0 +1,26 @@
+package es.uji.al259348.sliwandroid.core.repositories;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * Evicts the oldest samples.
+ */
+public class OldestFirstEvictionPolicy implements EvictionPolicy {
+
+    @Override
+    public List<Sample> selectVictims(Iterable<Sample> oldestFirst, int count) {
+        List<Sample> victims = new ArrayList<>(count);
+
+        for (Sample sample : oldestFirst) {
+            if (victims.size() >= count)
+                break;
+            victims.add(sample);
+        }
+
+        return victims;
+    }
+
+}
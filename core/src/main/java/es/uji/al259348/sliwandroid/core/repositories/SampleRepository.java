@@ -1,5 +1,7 @@
 package es.uji.al259348.sliwandroid.core.repositories;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 import es.uji.al259348.sliwandroid.core.model.Sample;
@@ -7,10 +9,27 @@ import es.uji.al259348.sliwandroid.core.model.Sample;
 public interface SampleRepository extends Repository {
 
     Sample save(Sample sample);
+    List<Sample> saveAll(List<Sample> samples);
     void remove(Sample sample);
+    void removeAll(Collection<Sample> samples);
+
+    /**
+     * Remove the samples taken before the given date. The samples without a date are kept.
+     *
+     * @return Returns the number of samples removed.
+     */
+    int removeOlderThan(Date date);
 
     long count();
     Sample findById(String id);
     List<Sample> findAll();
 
+    /**
+     * Iterate over the stored samples from the oldest to the newest. The samples are
+     * read lazily one page at a time, so only a page is kept in memory.
+     *
+     * @param pageSize The number of samples read at once.
+     */
+    Iterable<Sample> streamOldest(int pageSize);
+
 }
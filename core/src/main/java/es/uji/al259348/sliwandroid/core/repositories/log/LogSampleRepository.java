@@ -0,0 +1,126 @@
+package es.uji.al259348.sliwandroid.core.repositories.log;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.repositories.SampleRepository;
+
+/**
+ * Sample repository backed by the append-only {@link SampleLog}.
+ *
+ * The samples are returned in the order they were saved, which is the order they were taken.
+ */
+public class LogSampleRepository implements SampleRepository {
+
+    private SampleLog log;
+
+    public LogSampleRepository(Context context) {
+        this(context, SampleLog.DEFAULT_NAME);
+    }
+
+    /**
+     * Create a repository backed by its own log, apart from the samples waiting to be published.
+     */
+    public LogSampleRepository(Context context, String logName) {
+        this.log = SampleLog.getInstance(context, logName);
+    }
+
+    LogSampleRepository(SampleLog log) {
+        this.log = log;
+    }
+
+    @Override
+    public void onDestroy() {
+        // The log is shared by the whole process, it is kept open.
+    }
+
+    @Override
+    public Sample save(Sample sample) {
+        saveAll(Collections.singletonList(sample));
+        return sample;
+    }
+
+    @Override
+    public List<Sample> saveAll(List<Sample> samples) {
+        try {
+            log.append(samples);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return samples;
+    }
+
+    @Override
+    public void remove(Sample sample) {
+        removeAll(Collections.singletonList(sample));
+    }
+
+    @Override
+    public void removeAll(Collection<Sample> samples) {
+        List<String> ids = new ArrayList<>(samples.size());
+        for (Sample sample : samples)
+            ids.add(sample.getId());
+
+        try {
+            log.acknowledge(ids);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int removeOlderThan(Date date) {
+        // The samples are in the order they were saved, which isn't always the order they were
+        // taken (e.g. a sample saved again after a failed publish), so every sample is checked.
+        List<String> ids = new ArrayList<>();
+        for (Sample sample : streamOldest(0)) {
+            if (sample.getDate() != null && sample.getDate().before(date))
+                ids.add(sample.getId());
+        }
+
+        if (!ids.isEmpty()) {
+            try {
+                log.acknowledge(ids);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return ids.size();
+    }
+
+    @Override
+    public long count() {
+        return log.size();
+    }
+
+    @Override
+    public Sample findById(String id) {
+        try {
+            return log.read(id);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<Sample> findAll() {
+        List<Sample> samples = new ArrayList<>();
+        for (Sample sample : streamOldest(0))
+            samples.add(sample);
+        return samples;
+    }
+
+    @Override
+    public Iterable<Sample> streamOldest(int pageSize) {
+        int size = (pageSize > 0) ? pageSize : SampleLog.DEFAULT_PAGE_SIZE;
+        return () -> log.iterator(size);
+    }
+
+}
@@ -0,0 +1,532 @@
+package es.uji.al259348.sliwandroid.core.repositories.log;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * Append-only storage of samples made of segment files.
+ *
+ * Every record is framed as [length][crc32][payload]. The samples are appended to the
+ * newest segment until it reaches the maximum size, then a new segment is started.
+ * Removing a sample appends its id and the position of its record to the
+ * acknowledgements file, so a sample appended again afterwards isn't acknowledged too.
+ * A segment is deleted as soon as all of its samples have been acknowledged. On opening,
+ * the segments are read back and a torn record at the end of a segment is truncated.
+ *
+ * Each log is shared by the whole process, since it keeps an index of the samples.
+ */
+public class SampleLog {
+
+    public static final String DEFAULT_NAME = "samplesLog";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String ACKS_FILENAME = "acks.log";
+
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static class Segment {
+
+        private final long number;
+        private final File file;
+        private int records;
+        private int liveRecords;
+
+        private MappedByteBuffer buffer;
+
+        Segment(long number, File file) {
+            this.number = number;
+            this.file = file;
+        }
+
+        /**
+         * Get a read-only mapping of the segment covering at least the given size.
+         */
+        ByteBuffer map(long size) throws IOException {
+            if (buffer == null || buffer.capacity() < size) {
+                try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+                    FileChannel channel = randomAccessFile.getChannel();
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            return buffer.duplicate();
+        }
+
+    }
+
+    private static class RecordLocation {
+
+        private final Segment segment;
+        private final int offset;
+
+        RecordLocation(Segment segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+
+    }
+
+    /**
+     * An acknowledgement, "segment:offset:id".
+     */
+    private static class Ack {
+
+        private final String id;
+        private final long segment;
+        private final int offset;
+        private final byte[] payload;
+
+        private Ack(String id, long segment, int offset, byte[] payload) {
+            this.id = id;
+            this.segment = segment;
+            this.offset = offset;
+            this.payload = payload;
+        }
+
+        /**
+         * @return Returns the acknowledgement or null if the payload isn't one.
+         */
+        static Ack parse(byte[] payload) {
+            String[] parts = new String(payload, UTF_8).split(":", 3);
+            if (parts.length != 3)
+                return null;
+            try {
+                return new Ack(parts[2], Long.parseLong(parts[0]), Integer.parseInt(parts[1]), payload);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        static byte[] encode(String id, RecordLocation location) {
+            return (location.segment.number + ":" + location.offset + ":" + id).getBytes(UTF_8);
+        }
+
+        boolean matches(RecordLocation location) {
+            return location.segment.number == segment && location.offset == offset;
+        }
+
+    }
+
+    /**
+     * The position of an iteration over the log.
+     */
+    private static class Cursor {
+
+        private long segment;
+        private int offset;
+
+    }
+
+    /**
+     * The size of the pages read by the iterations that don't set it.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    private static Map<String, SampleLog> instances = new HashMap<>();
+
+    public static SampleLog getInstance(Context context) {
+        return getInstance(context, DEFAULT_NAME);
+    }
+
+    /**
+     * Get the log with the given name, which is kept in its own directory.
+     */
+    public synchronized static SampleLog getInstance(Context context, String name) {
+
+        if (context == null)
+            throw new IllegalArgumentException();
+
+        SampleLog instance = instances.get(name);
+        if (instance == null) {
+            File directory = new File(context.getFilesDir(), name);
+            long maxSegmentBytes = context.getResources().getInteger(R.integer.sampleLogSegmentMaxBytes);
+            try {
+                instance = new SampleLog(directory, maxSegmentBytes);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            instances.put(name, instance);
+        }
+
+        return instance;
+    }
+
+    private File directory;
+    private long maxSegmentBytes;
+
+    private TreeMap<Long, Segment> segments;
+    private LinkedHashMap<String, RecordLocation> index;
+
+    private Segment activeSegment;
+    private FileChannel activeChannel;
+    private FileChannel acksChannel;
+
+    SampleLog(File directory, long maxSegmentBytes) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.segments = new TreeMap<>();
+        this.index = new LinkedHashMap<>();
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create the directory " + directory);
+
+        open();
+    }
+
+    private void open() throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    long number = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(number, new Segment(number, file));
+                }
+            }
+        }
+
+        for (Segment segment : segments.values())
+            readSegment(segment);
+
+        File acksFile = new File(directory, ACKS_FILENAME);
+        List<Ack> acks = readAcks(acksFile);
+        for (Ack ack : acks) {
+            RecordLocation location = index.get(ack.id);
+            if (location != null && ack.matches(location))
+                forget(ack.id);
+        }
+
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment.liveRecords == 0)
+                deleteSegment(segment);
+        }
+
+        // Rewrite the acknowledgements keeping only the ones of the remaining segments.
+        File newAcksFile = new File(directory, ACKS_FILENAME + ".tmp");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(newAcksFile, "rw")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(0);
+            for (Ack ack : acks) {
+                if (segments.containsKey(ack.segment))
+                    appendRecord(channel, ack.payload);
+            }
+            channel.force(false);
+        }
+        if (!newAcksFile.renameTo(acksFile))
+            throw new IOException("Can't replace " + acksFile);
+
+        acksChannel = new RandomAccessFile(acksFile, "rw").getChannel();
+        acksChannel.position(acksChannel.size());
+
+        Log.i("SampleLog", "Opened with " + index.size() + " samples in " + segments.size() + " segments.");
+    }
+
+    private void readSegment(Segment segment) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(segment.file, "rw")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int offset = 0;
+            while (offset < buffer.limit()) {
+                byte[] payload = readRecord(buffer, offset);
+                if (payload == null) {
+                    Log.w("SampleLog", "Truncating " + segment.file.getName() + " at " + offset + ", the record is incomplete or corrupt.");
+                    channel.truncate(offset);
+                    break;
+                }
+
+                Sample sample = SampleRecordCodec.decode(payload);
+                put(sample.getId(), new RecordLocation(segment, offset));
+                segment.records++;
+
+                offset += HEADER_SIZE + payload.length;
+            }
+        }
+    }
+
+    private List<Ack> readAcks(File acksFile) throws IOException {
+        List<Ack> acks = new ArrayList<>();
+        if (!acksFile.exists())
+            return acks;
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(acksFile, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int offset = 0;
+            while (offset < buffer.limit()) {
+                byte[] payload = readRecord(buffer, offset);
+                if (payload == null)
+                    break;
+
+                Ack ack = Ack.parse(payload);
+                if (ack != null)
+                    acks.add(ack);
+                else
+                    Log.w("SampleLog", "Skipping the acknowledgement at " + offset + ", it isn't valid.");
+                offset += HEADER_SIZE + payload.length;
+            }
+        }
+
+        return acks;
+    }
+
+    /**
+     * Read the payload of the record at the given offset.
+     *
+     * @return Returns the payload or null if the record is incomplete or its checksum doesn't match.
+     */
+    private static byte[] readRecord(ByteBuffer buffer, int offset) {
+        if (offset + HEADER_SIZE > buffer.limit())
+            return null;
+
+        int length = buffer.getInt(offset);
+        int crc = buffer.getInt(offset + 4);
+        if (length < 0 || length > MAX_RECORD_SIZE || offset + HEADER_SIZE + length > buffer.limit())
+            return null;
+
+        byte[] payload = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset + HEADER_SIZE);
+        slice.get(payload);
+
+        return (checksum(payload) == crc) ? payload : null;
+    }
+
+    private static void appendRecord(FileChannel channel, byte[] payload) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt(checksum(payload));
+        record.put(payload);
+        record.flip();
+
+        while (record.hasRemaining())
+            channel.write(record);
+    }
+
+    private static int checksum(byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload, 0, payload.length);
+        return (int) crc32.getValue();
+    }
+
+    private void put(String id, RecordLocation location) {
+        forget(id);
+        index.put(id, location);
+        location.segment.liveRecords++;
+    }
+
+    private void forget(String id) {
+        RecordLocation location = index.remove(id);
+        if (location != null)
+            location.segment.liveRecords--;
+    }
+
+    private void deleteSegment(Segment segment) throws IOException {
+        if (segment == activeSegment) {
+            activeChannel.close();
+            activeChannel = null;
+            activeSegment = null;
+        }
+
+        segments.remove(segment.number);
+        segment.buffer = null;
+        if (!segment.file.delete())
+            throw new IOException("Can't delete " + segment.file);
+
+        Log.d("SampleLog", "Segment " + segment.file.getName() + " compacted.");
+    }
+
+    private void rollSegmentIfNeeded() throws IOException {
+        if (activeSegment != null && activeChannel.size() < maxSegmentBytes)
+            return;
+
+        if (activeChannel != null)
+            activeChannel.close();
+
+        long number = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        activeSegment = new Segment(number, new File(directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX));
+        segments.put(number, activeSegment);
+
+        activeChannel = new RandomAccessFile(activeSegment.file, "rw").getChannel();
+        activeChannel.position(activeChannel.size());
+    }
+
+    /**
+     * Append the samples and flush them to the storage once.
+     */
+    public synchronized void append(Collection<Sample> samples) throws IOException {
+        for (Sample sample : samples) {
+            rollSegmentIfNeeded();
+
+            int offset = (int) activeChannel.position();
+            appendRecord(activeChannel, SampleRecordCodec.encode(sample));
+
+            put(sample.getId(), new RecordLocation(activeSegment, offset));
+            activeSegment.records++;
+        }
+
+        if (activeChannel != null)
+            activeChannel.force(false);
+    }
+
+    /**
+     * Acknowledge the samples with the given ids, so they won't be read anymore.
+     * The segments left without samples are deleted.
+     */
+    public synchronized void acknowledge(Collection<String> ids) throws IOException {
+        Set<Segment> touched = new HashSet<>();
+
+        for (String id : ids) {
+            RecordLocation location = index.get(id);
+            if (location == null)
+                continue;
+
+            appendRecord(acksChannel, Ack.encode(id, location));
+            forget(id);
+            touched.add(location.segment);
+        }
+        acksChannel.force(false);
+
+        for (Segment segment : touched) {
+            if (segment.liveRecords == 0)
+                deleteSegment(segment);
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized Sample read(String id) throws IOException {
+        RecordLocation location = index.get(id);
+        return (location == null) ? null : read(location);
+    }
+
+    private Sample read(RecordLocation location) throws IOException {
+        ByteBuffer buffer = location.segment.map(location.segment.file.length());
+        byte[] payload = readRecord(buffer, location.offset);
+        if (payload == null)
+            throw new IOException("Corrupt record at " + location.segment.file.getName() + ":" + location.offset);
+
+        return SampleRecordCodec.decode(payload);
+    }
+
+    /**
+     * Iterate over the samples that haven't been acknowledged, in the order they were
+     * appended, a page of samples at a time.
+     */
+    public Iterator<Sample> iterator() {
+        return iterator(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Iterate over the samples that haven't been acknowledged, in the order they were
+     * appended. The records are read from the mapped segments a page at a time, so only a
+     * page of samples is kept in memory. The samples appended while iterating are read too.
+     *
+     * @param pageSize The number of samples read at once.
+     */
+    public Iterator<Sample> iterator(int pageSize) {
+        if (pageSize <= 0)
+            throw new IllegalArgumentException("The page size must be positive: " + pageSize);
+
+        Cursor cursor = new Cursor();
+        return new Iterator<Sample>() {
+
+            private Iterator<Sample> page = Collections.<Sample>emptyList().iterator();
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                if (!page.hasNext() && !exhausted) {
+                    List<Sample> samples;
+                    try {
+                        samples = readPage(cursor, pageSize);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    exhausted = samples.size() < pageSize;
+                    page = samples.iterator();
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public Sample next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return page.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+    }
+
+    /**
+     * Read the samples of the records from the cursor on, skipping the acknowledged ones and
+     * those appended again later, and move the cursor past them.
+     */
+    private synchronized List<Sample> readPage(Cursor cursor, int pageSize) throws IOException {
+        List<Sample> samples = new ArrayList<>(pageSize);
+
+        for (Segment segment : segments.tailMap(cursor.segment, true).values()) {
+            // The segment of the cursor may have been compacted meanwhile.
+            if (segment.number != cursor.segment) {
+                cursor.segment = segment.number;
+                cursor.offset = 0;
+            }
+
+            long size = (segment == activeSegment) ? activeChannel.position() : segment.file.length();
+            ByteBuffer buffer = segment.map(size);
+            while (cursor.offset < size && samples.size() < pageSize) {
+                byte[] payload = readRecord(buffer, cursor.offset);
+                if (payload == null)
+                    throw new IOException("Corrupt record at " + segment.file.getName() + ":" + cursor.offset);
+
+                Sample sample = SampleRecordCodec.decode(payload);
+                RecordLocation location = index.get(sample.getId());
+                if (location != null && location.segment == segment && location.offset == cursor.offset)
+                    samples.add(sample);
+
+                cursor.offset += HEADER_SIZE + payload.length;
+            }
+
+            if (samples.size() >= pageSize)
+                break;
+        }
+
+        return samples;
+    }
+
+}
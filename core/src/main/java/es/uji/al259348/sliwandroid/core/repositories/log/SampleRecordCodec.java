@@ -0,0 +1,115 @@
+package es.uji.al259348.sliwandroid.core.repositories.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+
+import es.uji.al259348.sliwandroid.core.model.Fingerprint;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * Binary encoding of the samples stored in the log.
+ *
+ * The BSSIDs that are MAC addresses are stored packed in 6 bytes, as in {@link Fingerprint},
+ * and the rest as strings.
+ */
+class SampleRecordCodec {
+
+    private static final int VERSION = 1;
+
+    private SampleRecordCodec() {
+
+    }
+
+    static byte[] encode(Sample sample) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeByte(VERSION);
+        writeString(out, sample.getId());
+        writeString(out, sample.getUserId());
+        writeString(out, sample.getDeviceId());
+        writeString(out, sample.getLocation());
+        out.writeLong(sample.getDate() == null ? -1 : sample.getDate().getTime());
+        out.writeBoolean(sample.isValid());
+
+        Collection<Sample.WifiScanResult> scanResults = sample.getScanResults();
+        out.writeInt(scanResults.size());
+        for (Sample.WifiScanResult scanResult : scanResults) {
+            writeString(out, scanResult.SSID);
+            writeBssid(out, scanResult.BSSID);
+            out.writeInt(scanResult.level);
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static Sample decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+
+        int version = in.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unknown sample record version: " + version);
+
+        Sample sample = new Sample();
+        sample.setId(readString(in));
+        sample.setUserId(readString(in));
+        sample.setDeviceId(readString(in));
+        sample.setLocation(readString(in));
+        long date = in.readLong();
+        sample.setDate(date == -1 ? null : new Date(date));
+        sample.setValid(in.readBoolean());
+
+        int numScanResults = in.readInt();
+        Collection<Sample.WifiScanResult> scanResults = new ArrayList<>(numScanResults);
+        for (int i = 0; i < numScanResults; i++) {
+            Sample.WifiScanResult scanResult = new Sample.WifiScanResult();
+            scanResult.SSID = readString(in);
+            scanResult.BSSID = readBssid(in);
+            scanResult.level = in.readInt();
+            scanResult.sample = sample;
+            scanResults.add(scanResult);
+        }
+        sample.setScanResults(scanResults);
+
+        return sample;
+    }
+
+    private static void writeBssid(DataOutputStream out, String bssid) throws IOException {
+        boolean packed = Fingerprint.isBssid(bssid) && bssid.equals(Fingerprint.formatBssid(Fingerprint.parseBssid(bssid)));
+        out.writeBoolean(packed);
+        if (packed) {
+            long value = Fingerprint.parseBssid(bssid);
+            out.writeShort((int) (value >>> 32));
+            out.writeInt((int) value);
+        } else {
+            writeString(out, bssid);
+        }
+    }
+
+    private static String readBssid(DataInputStream in) throws IOException {
+        if (!in.readBoolean())
+            return readString(in);
+
+        long high = in.readShort() & 0xFFFFL;
+        long low = in.readInt() & 0xFFFFFFFFL;
+        return Fingerprint.formatBssid((high << 32) | low);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+}
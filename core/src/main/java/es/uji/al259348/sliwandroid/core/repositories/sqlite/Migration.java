@@ -0,0 +1,22 @@
+package es.uji.al259348.sliwandroid.core.repositories.sqlite;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.j256.ormlite.support.ConnectionSource;
+
+import java.sql.SQLException;
+
+/**
+ * A step of the database schema upgrade. It must alter the tables in place, keeping
+ * the rows they already have.
+ */
+public interface Migration {
+
+    /**
+     * @return Returns the database version reached after applying this migration.
+     */
+    int getVersion();
+
+    void migrate(SQLiteDatabase db, ConnectionSource connectionSource) throws SQLException;
+
+}
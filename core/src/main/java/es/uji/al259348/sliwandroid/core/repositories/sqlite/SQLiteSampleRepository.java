@@ -4,23 +4,81 @@ import android.content.Context;
 import android.util.Log;
 
 import com.j256.ormlite.android.apptools.OpenHelperManager;
-import com.j256.ormlite.dao.ForeignCollection;
 import com.j256.ormlite.dao.RuntimeExceptionDao;
+import com.j256.ormlite.misc.TransactionManager;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.Where;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
 
 import es.uji.al259348.sliwandroid.core.model.Sample;
 import es.uji.al259348.sliwandroid.core.repositories.SampleRepository;
 
 public class SQLiteSampleRepository implements SampleRepository {
 
+    private static final String[] SAMPLE_COLUMNS = {"id", "userId", "deviceId", "location", "date", "valid"};
+
+    /**
+     * Walks the samples from the oldest to the newest, one page at a time, using the
+     * (date, id) of the last sample read as the key of the next page.
+     */
+    private class PageIterator implements Iterator<Sample> {
+
+        private final int pageSize;
+
+        private Iterator<Sample> page;
+        private Sample last;
+        private boolean exhausted;
+
+        PageIterator(int pageSize) {
+            this.pageSize = pageSize;
+            this.page = Collections.<Sample>emptyList().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!page.hasNext() && !exhausted) {
+                List<Sample> samples = findPageAfter(last, pageSize);
+                exhausted = samples.size() < pageSize;
+                page = samples.iterator();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public Sample next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            last = page.next();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
     private SQLiteSliwDatabase db;
     private RuntimeExceptionDao<Sample, String> dao;
+    private RuntimeExceptionDao<Sample.WifiScanResult, Integer> scanResultDao;
 
     public SQLiteSampleRepository(Context context) {
         this.db = OpenHelperManager.getHelper(context, SQLiteSliwDatabase.class);
         this.dao = this.db.getRuntimeExceptionDao(Sample.class);
+        this.scanResultDao = this.db.getRuntimeExceptionDao(Sample.WifiScanResult.class);
     }
 
     @Override
@@ -30,23 +88,91 @@ public class SQLiteSampleRepository implements SampleRepository {
 
     @Override
     public Sample save(Sample sample) {
+        inTransaction(() -> insert(sample));
+        return sample;
+    }
+
+    @Override
+    public List<Sample> saveAll(List<Sample> samples) {
+        inTransaction(() -> {
+            for (Sample sample : samples)
+                insert(sample);
+        });
+        return samples;
+    }
+
+    /**
+     * Write a sample and all of its scan results. It must be called inside a
+     * transaction, otherwise every row is committed on its own.
+     */
+    private void insert(Sample sample) {
         dao.createOrUpdate(sample);
 
-        ForeignCollection<Sample.WifiScanResult> scanResults = dao.getEmptyForeignCollection("scanResults");
         for (Sample.WifiScanResult wifiScanResult : sample.getScanResults()) {
             wifiScanResult.sample = sample;
-            scanResults.add(wifiScanResult);
+            scanResultDao.create(wifiScanResult);
         }
+    }
 
-        sample.setScanResults(scanResults);
+    private void inTransaction(Runnable runnable) {
+        callInTransaction(() -> {
+            runnable.run();
+            return null;
+        });
+    }
 
-        return sample;
+    private <T> T callInTransaction(Callable<T> callable) {
+        try {
+            return TransactionManager.callInTransaction(db.getConnectionSource(), callable);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
     public void remove(Sample sample) {
-        int rowsUpdated = dao.delete(sample);
-        Log.d("SampleRepo", "Resultado eliminar muestra: " + rowsUpdated);
+        removeAll(Collections.singletonList(sample));
+    }
+
+    @Override
+    public void removeAll(Collection<Sample> samples) {
+        if (samples.isEmpty())
+            return;
+
+        List<String> ids = new ArrayList<>(samples.size());
+        for (Sample sample : samples)
+            ids.add(sample.getId());
+
+        // The scan results have to be removed too, otherwise they stay as orphan rows.
+        inTransaction(() -> {
+            try {
+                DeleteBuilder<Sample.WifiScanResult, Integer> deleteBuilder = scanResultDao.deleteBuilder();
+                deleteBuilder.where().in("sample_id", ids);
+                deleteBuilder.delete();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+
+            int rowsUpdated = dao.deleteIds(ids);
+            Log.d("SampleRepo", "Resultado eliminar muestras: " + rowsUpdated);
+        });
+    }
+
+    @Override
+    public int removeOlderThan(Date date) {
+        // Two deletes, whatever the number of samples, using the index on the date.
+        return callInTransaction(() -> {
+            QueryBuilder<Sample, String> expired = dao.queryBuilder().selectColumns("id");
+            expired.where().lt("date", date);
+
+            DeleteBuilder<Sample.WifiScanResult, Integer> scanResultsDeleteBuilder = scanResultDao.deleteBuilder();
+            scanResultsDeleteBuilder.where().in("sample_id", expired);
+            scanResultsDeleteBuilder.delete();
+
+            DeleteBuilder<Sample, String> samplesDeleteBuilder = dao.deleteBuilder();
+            samplesDeleteBuilder.where().lt("date", date);
+            return samplesDeleteBuilder.delete();
+        });
     }
 
     @Override
@@ -64,4 +190,67 @@ public class SQLiteSampleRepository implements SampleRepository {
         return dao.queryForAll();
     }
 
+    @Override
+    public Iterable<Sample> streamOldest(int pageSize) {
+        return () -> new PageIterator(pageSize);
+    }
+
+    /**
+     * Get a page of samples, with their scan results, ordered by date. The scan results
+     * of the whole page are fetched with a single query.
+     *
+     * SQLite sorts the samples without a date first, so after one of them the page goes on
+     * with the rest of them, by id, and then with all of the samples with a date.
+     */
+    private List<Sample> findPageAfter(Sample last, int pageSize) {
+        try {
+            // Selecting the columns explicitly keeps ORMLite from loading the eager
+            // scan results collection with one query per sample.
+            QueryBuilder<Sample, String> queryBuilder = dao.queryBuilder()
+                    .selectColumns(SAMPLE_COLUMNS)
+                    .orderBy("date", true)
+                    .orderBy("id", true)
+                    .limit((long) pageSize);
+
+            if (last != null && last.getDate() == null) {
+                Where<Sample, String> where = queryBuilder.where();
+                where.or(
+                        where.and(where.isNull("date"), where.gt("id", last.getId())),
+                        where.isNotNull("date")
+                );
+            } else if (last != null) {
+                Where<Sample, String> where = queryBuilder.where();
+                where.or(
+                        where.gt("date", last.getDate()),
+                        where.and(where.eq("date", last.getDate()), where.gt("id", last.getId()))
+                );
+            }
+
+            List<Sample> samples = queryBuilder.query();
+            if (samples.isEmpty())
+                return samples;
+
+            Map<String, Sample> samplesById = new HashMap<>(samples.size());
+            for (Sample sample : samples) {
+                sample.setScanResults(new ArrayList<>());
+                samplesById.put(sample.getId(), sample);
+            }
+
+            List<Sample.WifiScanResult> scanResults = scanResultDao.queryBuilder()
+                    .where().in("sample_id", samplesById.keySet())
+                    .query();
+
+            for (Sample.WifiScanResult scanResult : scanResults) {
+                Sample sample = samplesById.get(scanResult.sample.getId());
+                scanResult.sample = sample;
+                sample.getScanResults().add(scanResult);
+            }
+
+            return samples;
+
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
@@ -15,7 +15,34 @@ import es.uji.al259348.sliwandroid.core.model.Sample;
 public class SQLiteSliwDatabase extends OrmLiteSqliteOpenHelper {
 
     private static final String DATABASE_NAME = "Sliw.db";
-    private static final int DATABASE_VERSION = 3;
+    private static final int DATABASE_VERSION = 4;
+
+    /**
+     * The oldest version that can be upgraded by the migrations below. Older databases
+     * are recreated.
+     */
+    private static final int OLDEST_MIGRATABLE_VERSION = 3;
+
+    /**
+     * The migrations, in the order they have to be applied.
+     */
+    private static final Migration[] MIGRATIONS = {
+
+            new Migration() {
+                @Override
+                public int getVersion() {
+                    return 4;
+                }
+
+                @Override
+                public void migrate(SQLiteDatabase db, ConnectionSource connectionSource) {
+                    // Same names ORMLite gives to the indexes of the fields with index = true.
+                    db.execSQL("CREATE INDEX IF NOT EXISTS `wifiScanResults_sample_idx` ON `wifiScanResults` ( `sample_id` )");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS `samples_date_idx` ON `samples` ( `date` )");
+                }
+            }
+
+    };
 
     public SQLiteSliwDatabase(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -38,8 +65,29 @@ public class SQLiteSliwDatabase extends OrmLiteSqliteOpenHelper {
     @Override
     public void onUpgrade(SQLiteDatabase db, ConnectionSource connectionSource, int oldVersion, int newVersion) {
         Log.i("SQLiteSliwDatabase", "Upgrading database version from " + oldVersion + " to " + newVersion + " ...");
+
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            recreate(db, connectionSource);
+            return;
+        }
+
+        try {
+            for (Migration migration : MIGRATIONS) {
+                if (migration.getVersion() > oldVersion && migration.getVersion() <= newVersion) {
+                    Log.i("SQLiteSliwDatabase", "Migrating to version " + migration.getVersion() + " ...");
+                    migration.migrate(db, connectionSource);
+                }
+            }
+            Log.i("SQLiteSliwDatabase", "Database updated successfully.");
+        } catch (SQLException e) {
+            Log.e("SQLiteSliwDatabase", "Can't migrate the database.", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void recreate(SQLiteDatabase db, ConnectionSource connectionSource) {
         try {
-            Log.i("SQLiteSliwDatabase", "Droping tables...");
+            Log.i("SQLiteSliwDatabase", "There isn't a migration from this version, droping tables...");
             TableUtils.dropTable(connectionSource, Sample.WifiScanResult.class, true);
             TableUtils.dropTable(connectionSource, Sample.class, true);
             onCreate(db, connectionSource);
@@ -2,7 +2,36 @@ package es.uji.al259348.sliwandroid.core.services;
 
 public interface AlarmService extends Service {
 
+    /**
+     * Start taking samples periodically, unless they are already being taken.
+     */
     void setTakeSampleAlarm();
+
+    /**
+     * Set the alarm again with the interval it had, e.g. after the device has been rebooted.
+     */
+    void restoreTakeSampleAlarm();
+
     void cancelTakeSampleAlarm();
 
+    /**
+     * Take a sample right away and go back to the minimum interval, e.g. when the user
+     * starts moving.
+     */
+    void resumeTakeSampleAlarm();
+
+    /**
+     * Set the next alarm with the current interval, so the samples keep being taken even
+     * if the one of this alarm isn't.
+     */
+    void onTakeSampleAlarm();
+
+    /**
+     * Adapt the interval to the last sample: it is doubled, up to the maximum, while the
+     * location is stable and it is reset to the minimum when the location changes.
+     */
+    void onSampleTaken(boolean stable);
+
+    long getTakeSampleIntervalInSeconds();
+
 }
@@ -4,18 +4,35 @@ import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.SystemClock;
 import android.util.Log;
 
 import es.uji.al259348.sliwandroid.core.R;
 import es.uji.al259348.sliwandroid.core.android.receivers.TakeSampleReceiver;
 
+/**
+ * Schedules the samples with an adaptive interval. Each alarm is set once, for the next
+ * sample, and the interval backs off exponentially while the location doesn't change.
+ *
+ * The interval and the time of the next alarm are persisted, so the schedule survives
+ * the process and can be restored after a reboot.
+ */
 public class AlarmServiceImpl extends AbstractService implements AlarmService {
 
+    private static final String SHARED_PREFERENCES_NAME = "AlarmServiceSharedPreferences";
+    private static final String SHARED_PREFERENCES_KEY_INTERVAL = "takeSampleIntervalInSeconds";
+    private static final String SHARED_PREFERENCES_KEY_NEXT_ALARM = "nextTakeSampleAlarm";
+
     private AlarmManager alarmManager;
 
     private PendingIntent pendingIntentTakeSampleReceiver;
 
+    private SharedPreferences sharedPreferences;
+
+    private long minIntervalInSeconds;
+    private long maxIntervalInSeconds;
+
     public AlarmServiceImpl(Context context) {
         super(context);
 
@@ -23,6 +40,10 @@ public class AlarmServiceImpl extends AbstractService implements AlarmService {
 
         Intent intentTakeSampleReceiver = new Intent(context, TakeSampleReceiver.class);
         pendingIntentTakeSampleReceiver = PendingIntent.getBroadcast(context, 0, intentTakeSampleReceiver, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        this.sharedPreferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.minIntervalInSeconds = context.getResources().getInteger(R.integer.intervalTakeSampleAlarmInSeconds);
+        this.maxIntervalInSeconds = Math.max(minIntervalInSeconds, context.getResources().getInteger(R.integer.maxIntervalTakeSampleAlarmInSeconds));
     }
 
     @Override
@@ -32,21 +53,90 @@ public class AlarmServiceImpl extends AbstractService implements AlarmService {
 
     @Override
     public void setTakeSampleAlarm() {
-        Log.d("AlarmService", "Setting TakeSampleAlarm");
-        long triggerAtMillis = SystemClock.elapsedRealtime();
-        long intervalMillis = 1000 * getContext().getResources().getInteger(R.integer.intervalTakeSampleAlarmInSeconds);
+        if (isScheduled()) {
+            restoreTakeSampleAlarm();
+        } else {
+            Log.d("AlarmService", "Setting TakeSampleAlarm");
+            schedule(0, minIntervalInSeconds);
+        }
+    }
 
-        alarmManager.setRepeating(
-                AlarmManager.ELAPSED_REALTIME_WAKEUP,
-                triggerAtMillis,
-                intervalMillis,
-                pendingIntentTakeSampleReceiver);
+    @Override
+    public void restoreTakeSampleAlarm() {
+        long intervalInSeconds = getTakeSampleIntervalInSeconds();
+        long nextAlarm = sharedPreferences.getLong(SHARED_PREFERENCES_KEY_NEXT_ALARM, 0);
+
+        // The time left is bounded by the interval in case the clock has been changed.
+        long delayMillis = Math.max(0, Math.min(1000 * intervalInSeconds, nextAlarm - System.currentTimeMillis()));
+        Log.d("AlarmService", "Restoring TakeSampleAlarm every " + intervalInSeconds + " s, the next one in " + delayMillis + " ms");
+        schedule(delayMillis, intervalInSeconds);
     }
 
     @Override
     public void cancelTakeSampleAlarm() {
         Log.d("AlarmService", "Canceling TakeSampleAlarm");
         alarmManager.cancel(pendingIntentTakeSampleReceiver);
+        sharedPreferences.edit()
+                .remove(SHARED_PREFERENCES_KEY_INTERVAL)
+                .remove(SHARED_PREFERENCES_KEY_NEXT_ALARM)
+                .apply();
+    }
+
+    @Override
+    public void resumeTakeSampleAlarm() {
+        if (!isScheduled())
+            return;
+
+        Log.d("AlarmService", "Resuming TakeSampleAlarm");
+        schedule(0, minIntervalInSeconds);
+    }
+
+    @Override
+    public void onTakeSampleAlarm() {
+        if (!isScheduled())
+            return;
+
+        long intervalInSeconds = getTakeSampleIntervalInSeconds();
+        schedule(1000 * intervalInSeconds, intervalInSeconds);
+    }
+
+    @Override
+    public void onSampleTaken(boolean stable) {
+        if (!isScheduled())
+            return;
+
+        long intervalInSeconds = stable
+                ? Math.min(2 * getTakeSampleIntervalInSeconds(), maxIntervalInSeconds)
+                : minIntervalInSeconds;
+
+        Log.d("AlarmService", "The location is " + (stable ? "stable" : "changing") + ", the next sample in " + intervalInSeconds + " s");
+        schedule(1000 * intervalInSeconds, intervalInSeconds);
+    }
+
+    @Override
+    public long getTakeSampleIntervalInSeconds() {
+        long intervalInSeconds = sharedPreferences.getLong(SHARED_PREFERENCES_KEY_INTERVAL, minIntervalInSeconds);
+        return Math.max(minIntervalInSeconds, Math.min(maxIntervalInSeconds, intervalInSeconds));
+    }
+
+    /**
+     * Get whether the samples are being taken, i.e. the alarm hasn't been canceled.
+     */
+    private boolean isScheduled() {
+        return sharedPreferences.contains(SHARED_PREFERENCES_KEY_NEXT_ALARM);
+    }
+
+    private void schedule(long delayMillis, long intervalInSeconds) {
+        alarmManager.set(
+                AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                SystemClock.elapsedRealtime() + delayMillis,
+                pendingIntentTakeSampleReceiver);
+
+        // The elapsed time restarts on reboot, so the next alarm is stored as wall clock time.
+        sharedPreferences.edit()
+                .putLong(SHARED_PREFERENCES_KEY_INTERVAL, intervalInSeconds)
+                .putLong(SHARED_PREFERENCES_KEY_NEXT_ALARM, System.currentTimeMillis() + delayMillis)
+                .apply();
     }
 
 }
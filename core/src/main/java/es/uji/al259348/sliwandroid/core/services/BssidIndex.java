@@ -0,0 +1,164 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import es.uji.al259348.sliwandroid.core.model.Fingerprint;
+
+/**
+ * Inverted index from each access point to the training scans that have seen it.
+ *
+ * The squared Euclidean distance between a query and a training scan, with the access
+ * points missing from either side taken at {@link Fingerprint#MISSING_RSSI}, is
+ *
+ * <pre>
+ * Q + T + sum over the shared access points of ((q - t)^2 - (q - M)^2 - (t - M)^2)
+ * </pre>
+ *
+ * where Q and T are the sums of (level - M)^2 of the query and of the training scan. So
+ * walking the posting lists of the access points of the query is enough to get the exact
+ * distance to every training scan sharing some access point with it, and the rest are
+ * never touched.
+ */
+class BssidIndex {
+
+    /**
+     * The ids of the scans that have seen an access point, with the level they saw.
+     */
+    private static class PostingList {
+
+        private int[] ids = new int[4];
+        private byte[] levels = new byte[4];
+        private int size;
+
+        void add(int id, int level) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                levels = Arrays.copyOf(levels, size * 2);
+            }
+            ids[size] = id;
+            levels[size] = (byte) level;
+            size++;
+        }
+
+    }
+
+    /**
+     * The distances from a query to the scans sharing access points with it.
+     */
+    static class Candidates {
+
+        final int[] ids;
+        final long[] distances;
+        final int size;
+
+        Candidates(int[] ids, long[] distances, int size) {
+            this.ids = ids;
+            this.distances = distances;
+            this.size = size;
+        }
+
+    }
+
+    private Map<Long, PostingList> postings;
+
+    // The sum of (level - M)^2 of every scan, by id.
+    private long[] norms;
+    private int size;
+
+    // Reused by every search, only the entries of the scans it touches are reset.
+    private long[] corrections;
+    private boolean[] touched;
+    private int[] touchedIds;
+    private long[] distances;
+
+    BssidIndex() {
+        this.postings = new HashMap<>();
+        this.norms = new long[64];
+        this.corrections = new long[64];
+        this.touched = new boolean[64];
+        this.touchedIds = new int[16];
+        this.distances = new long[16];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int countAccessPoints() {
+        return postings.size();
+    }
+
+    /**
+     * Add a scan to the index.
+     *
+     * @return Returns the id given to the scan, which is the number of scans added before.
+     */
+    int add(Fingerprint fingerprint) {
+        int id = size++;
+        if (id == norms.length) {
+            norms = Arrays.copyOf(norms, id * 2);
+            corrections = Arrays.copyOf(corrections, id * 2);
+            touched = Arrays.copyOf(touched, id * 2);
+        }
+
+        for (int i = 0; i < fingerprint.size(); i++) {
+            PostingList postingList = postings.get(fingerprint.getBssid(i));
+            if (postingList == null) {
+                postingList = new PostingList();
+                postings.put(fingerprint.getBssid(i), postingList);
+            }
+            postingList.add(id, fingerprint.getRssi(i));
+        }
+        norms[id] = fingerprint.squaredNorm();
+
+        return id;
+    }
+
+    /**
+     * Get the exact distance from the query to every scan sharing an access point with it.
+     *
+     * The arrays of the candidates are reused by the next search, and the searches must
+     * not run concurrently, as {@link KnnModel} does.
+     */
+    Candidates search(Fingerprint query) {
+        long queryNorm = query.squaredNorm();
+
+        int found = 0;
+
+        for (int i = 0; i < query.size(); i++) {
+            PostingList postingList = postings.get(query.getBssid(i));
+            if (postingList == null)
+                continue;
+
+            long q = query.getRssi(i);
+            long qm = q - Fingerprint.MISSING_RSSI;
+            for (int j = 0; j < postingList.size; j++) {
+                int id = postingList.ids[j];
+                long t = postingList.levels[j];
+                long tm = t - Fingerprint.MISSING_RSSI;
+                corrections[id] += (q - t) * (q - t) - qm * qm - tm * tm;
+
+                if (!touched[id]) {
+                    touched[id] = true;
+                    if (found == touchedIds.length)
+                        touchedIds = Arrays.copyOf(touchedIds, found * 2);
+                    touchedIds[found++] = id;
+                }
+            }
+        }
+
+        if (distances.length < found)
+            distances = new long[touchedIds.length];
+        for (int i = 0; i < found; i++) {
+            int id = touchedIds[i];
+            distances[i] = queryNorm + norms[id] + corrections[id];
+            corrections[id] = 0;
+            touched[id] = false;
+        }
+
+        return new Candidates(touchedIds, distances, found);
+    }
+
+}
@@ -0,0 +1,224 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.IOException;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.Fingerprint;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * Decides whether a periodic sample is worth publishing, comparing its fingerprint with
+ * the one of the last sample published.
+ *
+ * While the fingerprints stay within the distance threshold the samples aren't published,
+ * and every some of them a "still here" heartbeat with the count of samples suppressed is
+ * sent instead. The reference is always the last sample published, or saved to be
+ * published later, so a slow drift is noticed too, and it is refreshed after a maximum
+ * number of suppressed samples.
+ *
+ * The state and the counters are persisted, since the samples are taken by short-lived
+ * receivers.
+ */
+public class ChangeDetectionGate {
+
+    public enum Decision {
+        /**
+         * The location has changed, or there isn't a sample to compare with.
+         */
+        PUBLISH,
+        /**
+         * The location hasn't changed, but the reference has to be refreshed.
+         */
+        REFRESH,
+        HEARTBEAT,
+        SUPPRESS;
+
+        public boolean isStable() {
+            return this != PUBLISH;
+        }
+    }
+
+    public static class Counters {
+
+        private final long published;
+        private final long suppressed;
+        private final long heartbeats;
+        private final long suppressedBytes;
+
+        Counters(long published, long suppressed, long heartbeats, long suppressedBytes) {
+            this.published = published;
+            this.suppressed = suppressed;
+            this.heartbeats = heartbeats;
+            this.suppressedBytes = suppressedBytes;
+        }
+
+        public long getPublished() {
+            return published;
+        }
+
+        public long getSuppressed() {
+            return suppressed;
+        }
+
+        public long getHeartbeats() {
+            return heartbeats;
+        }
+
+        /**
+         * Get the size, as JSON, of the samples that haven't been published, less the size
+         * of the heartbeats sent instead.
+         */
+        public long getSuppressedBytes() {
+            return suppressedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Counters{" +
+                    "published=" + published +
+                    ", suppressed=" + suppressed +
+                    ", heartbeats=" + heartbeats +
+                    ", suppressedBytes=" + suppressedBytes +
+                    '}';
+        }
+
+    }
+
+    private static final String SHARED_PREFERENCES_FILENAME = "ChangeDetectionGateSharedPreferences";
+    private static final String SHARED_PREFERENCES_KEY_REFERENCE = "reference";
+    private static final String SHARED_PREFERENCES_KEY_SUPPRESSED_IN_A_ROW = "suppressedInARow";
+    private static final String SHARED_PREFERENCES_KEY_PUBLISHED = "published";
+    private static final String SHARED_PREFERENCES_KEY_SUPPRESSED = "suppressed";
+    private static final String SHARED_PREFERENCES_KEY_HEARTBEATS = "heartbeats";
+    private static final String SHARED_PREFERENCES_KEY_SUPPRESSED_BYTES = "suppressedBytes";
+
+    private static final Object LOCK = new Object();
+
+    private SharedPreferences sharedPreferences;
+
+    private double threshold;
+    private int heartbeatEvery;
+    private int maxSuppressed;
+
+    public ChangeDetectionGate(Context context) {
+        this.sharedPreferences = context.getSharedPreferences(SHARED_PREFERENCES_FILENAME, Context.MODE_PRIVATE);
+        this.threshold = context.getResources().getInteger(R.integer.changeDetectionThresholdPercent) / 100.0;
+        this.heartbeatEvery = context.getResources().getInteger(R.integer.changeDetectionHeartbeatEvery);
+        this.maxSuppressed = context.getResources().getInteger(R.integer.changeDetectionMaxSuppressed);
+    }
+
+    /**
+     * Decide what to do with the sample. A suppressed sample, or a heartbeat, is counted
+     * right away, while a sample to publish only becomes the reference once it has been
+     * published or saved, see {@link #onPublished(Sample)}.
+     */
+    public Decision decide(Sample sample) {
+        synchronized (LOCK) {
+            Sample reference = getReference();
+            int suppressedInARow = sharedPreferences.getInt(SHARED_PREFERENCES_KEY_SUPPRESSED_IN_A_ROW, 0);
+
+            if (reference == null)
+                return Decision.PUBLISH;
+
+            double distance = Fingerprint.of(sample).tanimotoDistance(Fingerprint.of(reference));
+            if (distance > threshold)
+                return Decision.PUBLISH;
+            if (suppressedInARow >= maxSuppressed)
+                return Decision.REFRESH;
+
+            suppressedInARow++;
+            Decision decision = (suppressedInARow % heartbeatEvery == 0) ? Decision.HEARTBEAT : Decision.SUPPRESS;
+            Log.d("ChangeDetectionGate", "Distance " + distance + " to the last sample published: " + decision);
+
+            long savedBytes = sizeOf(sample);
+            if (decision == Decision.HEARTBEAT)
+                savedBytes -= sizeOfHeartbeat(reference, suppressedInARow);
+
+            SharedPreferences.Editor editor = sharedPreferences.edit();
+            editor.putInt(SHARED_PREFERENCES_KEY_SUPPRESSED_IN_A_ROW, suppressedInARow);
+            increment(editor, SHARED_PREFERENCES_KEY_SUPPRESSED, 1);
+            increment(editor, SHARED_PREFERENCES_KEY_SUPPRESSED_BYTES, savedBytes);
+            if (decision == Decision.HEARTBEAT)
+                increment(editor, SHARED_PREFERENCES_KEY_HEARTBEATS, 1);
+            editor.apply();
+            return decision;
+        }
+    }
+
+    /**
+     * Make the sample the reference, once it has been published or saved to be published
+     * later. A sample that couldn't be delivered either way isn't compared with.
+     */
+    public void onPublished(Sample sample) {
+        synchronized (LOCK) {
+            try {
+                SharedPreferences.Editor editor = sharedPreferences.edit();
+                editor.putString(SHARED_PREFERENCES_KEY_REFERENCE, JsonSerialization.getSampleWriter().writeValueAsString(sample));
+                editor.putInt(SHARED_PREFERENCES_KEY_SUPPRESSED_IN_A_ROW, 0);
+                increment(editor, SHARED_PREFERENCES_KEY_PUBLISHED, 1);
+                editor.apply();
+            } catch (JsonProcessingException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Get the last sample published, the one the "still here" heartbeats refer to.
+     */
+    public Sample getReference() {
+        String value = sharedPreferences.getString(SHARED_PREFERENCES_KEY_REFERENCE, null);
+        if (value == null)
+            return null;
+
+        try {
+            return JsonSerialization.getSampleReader().readValue(value);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Get the number of samples suppressed since the last sample published.
+     */
+    public int getSuppressedInARow() {
+        return sharedPreferences.getInt(SHARED_PREFERENCES_KEY_SUPPRESSED_IN_A_ROW, 0);
+    }
+
+    public Counters getCounters() {
+        return new Counters(
+                sharedPreferences.getLong(SHARED_PREFERENCES_KEY_PUBLISHED, 0),
+                sharedPreferences.getLong(SHARED_PREFERENCES_KEY_SUPPRESSED, 0),
+                sharedPreferences.getLong(SHARED_PREFERENCES_KEY_HEARTBEATS, 0),
+                sharedPreferences.getLong(SHARED_PREFERENCES_KEY_SUPPRESSED_BYTES, 0)
+        );
+    }
+
+    private void increment(SharedPreferences.Editor editor, String key, long delta) {
+        editor.putLong(key, sharedPreferences.getLong(key, 0) + delta);
+    }
+
+    private static long sizeOfHeartbeat(Sample reference, int count) {
+        try {
+            return SampleServiceImpl.encodeStillHere(reference.getId(), count, System.currentTimeMillis()).length;
+        } catch (JsonProcessingException e) {
+            return 0;
+        }
+    }
+
+    private static long sizeOf(Sample sample) {
+        try {
+            return JsonSerialization.getSampleWriter().writeValueAsBytes(sample).length;
+        } catch (JsonProcessingException e) {
+            return 0;
+        }
+    }
+
+}
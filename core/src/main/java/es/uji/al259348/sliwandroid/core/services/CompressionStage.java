@@ -0,0 +1,29 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import java.io.IOException;
+
+/**
+ * Compression applied to the payloads sent to the backend.
+ *
+ * A compressed payload starts with the marker byte of the stage, so the receiver knows
+ * how to restore it. The marker must not be the first byte of an uncompressed payload.
+ */
+public interface CompressionStage {
+
+    byte getMarker();
+
+    /**
+     * Compress the payload.
+     *
+     * @return Returns the compressed payload, without the marker.
+     */
+    byte[] compress(byte[] payload) throws IOException;
+
+    /**
+     * Restore a payload compressed by this stage.
+     *
+     * @param compressed The compressed payload, without the marker.
+     */
+    byte[] decompress(byte[] compressed) throws IOException;
+
+}
@@ -0,0 +1,73 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the payloads with deflate in the zlib format, which the backend can
+ * inflate with any zlib implementation.
+ */
+public class DeflateCompressionStage implements CompressionStage {
+
+    public static final byte MARKER = (byte) 0xFD;
+
+    private int level;
+
+    public DeflateCompressionStage() {
+        this(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public DeflateCompressionStage(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public byte getMarker() {
+        return MARKER;
+    }
+
+    @Override
+    public byte[] compress(byte[] payload) throws IOException {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 4 + 64);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public byte[] decompress(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("The compressed payload is truncated.");
+                out.write(buffer, 0, length);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
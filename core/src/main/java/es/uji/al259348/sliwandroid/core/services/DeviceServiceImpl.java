@@ -4,7 +4,6 @@ import android.content.Context;
 import android.content.SharedPreferences;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
 import java.util.UUID;
@@ -24,20 +23,17 @@ public class DeviceServiceImpl extends AbstractService implements DeviceService
 
     private MessagingService messagingService;
 
-    private ObjectMapper objectMapper;
     private SharedPreferences sharedPreferences;
 
     public DeviceServiceImpl(Context context) {
         super(context);
         this.messagingService = new MessagingServiceImpl(context);
-        this.objectMapper = new ObjectMapper();
         this.sharedPreferences = getSharedPreferences();
     }
 
     public DeviceServiceImpl(Context context, MessagingService messagingService) {
         super(context);
         this.messagingService = messagingService;
-        this.objectMapper = new ObjectMapper();
         this.sharedPreferences = getSharedPreferences();
     }
 
@@ -57,24 +53,32 @@ public class DeviceServiceImpl extends AbstractService implements DeviceService
         if (sharedPreferences.contains(SHARED_PREFERENCES_KEY_CURRENT_DEVICE)) {
             String value = sharedPreferences.getString(SHARED_PREFERENCES_KEY_CURRENT_DEVICE, "");
             if (!value.isEmpty()) {
-                try {
-                    device = objectMapper.readValue(value, Device.class);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                device = parseDevice(value);
             }
         }
 
         return device;
     }
 
+    /**
+     * Parse a new device on every call, with the shared reader, as the callers may change it.
+     */
+    private static Device parseDevice(String value) {
+        try {
+            return JsonSerialization.getDeviceReader().readValue(value);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     @Override
     public boolean setCurrentDevice(Device device) {
         String value = null;
 
         if (device != null) {
             try {
-                value = objectMapper.writeValueAsString(device);
+                value = JsonSerialization.getDeviceWriter().writeValueAsString(device);
             } catch (JsonProcessingException e) {
                 e.printStackTrace();
                 return false;
@@ -102,7 +106,7 @@ public class DeviceServiceImpl extends AbstractService implements DeviceService
 
             String msg = "";
             try {
-                msg = objectMapper.writeValueAsString(device);
+                msg = JsonSerialization.getDeviceWriter().writeValueAsString(device);
             } catch (JsonProcessingException e) {
                 subscriber.onError(e);
             }
@@ -0,0 +1,132 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Config;
+import es.uji.al259348.sliwandroid.core.model.Device;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.model.User;
+
+/**
+ * JSON readers and writers shared by every service.
+ *
+ * Building a mapper and its serializers is expensive, so a single mapper is built for the
+ * whole process and the readers and writers of each model are taken from it once. They
+ * are immutable, so they can be used from any thread.
+ */
+public class JsonSerialization {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final ObjectReader SAMPLE_READER = OBJECT_MAPPER.readerFor(Sample.class);
+    private static final ObjectWriter SAMPLE_WRITER = OBJECT_MAPPER.writerFor(Sample.class);
+    private static final ObjectWriter SAMPLE_LIST_WRITER = OBJECT_MAPPER.writerFor(new TypeReference<List<Sample>>() {});
+
+    private static final ObjectReader USER_READER = OBJECT_MAPPER.readerFor(User.class);
+    private static final ObjectWriter USER_WRITER = OBJECT_MAPPER.writerFor(User.class);
+
+    private static final ObjectReader DEVICE_READER = OBJECT_MAPPER.readerFor(Device.class);
+    private static final ObjectWriter DEVICE_WRITER = OBJECT_MAPPER.writerFor(Device.class);
+
+    private static final ObjectReader CONFIG_READER = OBJECT_MAPPER.readerFor(Config.class);
+    private static final ObjectWriter CONFIG_WRITER = OBJECT_MAPPER.writerFor(Config.class);
+
+    private static final ObjectReader ID_LIST_READER = OBJECT_MAPPER.readerFor(String[].class);
+
+    private JsonSerialization() {
+
+    }
+
+    /**
+     * Get the shared mapper, for the types without their own reader or writer. It must not be reconfigured.
+     */
+    public static ObjectMapper getObjectMapper() {
+        return OBJECT_MAPPER;
+    }
+
+    public static ObjectReader getSampleReader() {
+        return SAMPLE_READER;
+    }
+
+    public static ObjectWriter getSampleWriter() {
+        return SAMPLE_WRITER;
+    }
+
+    public static ObjectWriter getSampleListWriter() {
+        return SAMPLE_LIST_WRITER;
+    }
+
+    public static ObjectReader getUserReader() {
+        return USER_READER;
+    }
+
+    public static ObjectWriter getUserWriter() {
+        return USER_WRITER;
+    }
+
+    public static ObjectReader getDeviceReader() {
+        return DEVICE_READER;
+    }
+
+    public static ObjectWriter getDeviceWriter() {
+        return DEVICE_WRITER;
+    }
+
+    public static ObjectReader getConfigReader() {
+        return CONFIG_READER;
+    }
+
+    public static ObjectWriter getConfigWriter() {
+        return CONFIG_WRITER;
+    }
+
+    /**
+     * Write a chunk of the samples of a configuration upload, streaming the samples
+     * straight into the buffer without building an intermediate string:
+     *
+     * <pre>
+     * {"uploadId": "...", "index": 0, "count": 10, "samples": [...]}
+     * </pre>
+     *
+     * The bytes are returned as a copy of the buffer on purpose. The payload goes to the MQTT
+     * client as a whole array, since its messages take no offset and length, and the client
+     * holds it until it has been delivered, while the buffer is overwritten by the next chunk.
+     * The payloads above the compression threshold are copied by the compression anyway.
+     *
+     * @param buffer The buffer to write to. It is reset first, so it can be reused.
+     * @return Returns a copy of the bytes written.
+     */
+    public static byte[] writeConfigChunk(String uploadId, int index, int count, List<Sample> samples, ByteArrayOutputStream buffer) throws IOException {
+        buffer.reset();
+
+        try (JsonGenerator generator = OBJECT_MAPPER.getFactory().createGenerator(buffer)) {
+            generator.writeStartObject();
+            generator.writeStringField("uploadId", uploadId);
+            generator.writeNumberField("index", index);
+            generator.writeNumberField("count", count);
+            generator.writeArrayFieldStart("samples");
+            for (Sample sample : samples)
+                SAMPLE_WRITER.writeValue(generator, sample);
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Get the reader of a JSON array of ids, e.g. the samples accepted by the backend.
+     */
+    public static ObjectReader getIdListReader() {
+        return ID_LIST_READER;
+    }
+
+}
@@ -0,0 +1,93 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.uji.al259348.sliwandroid.core.model.Fingerprint;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * k-nearest-neighbour model over the RSSI of the access points seen by each sample.
+ *
+ * The distance between two scans is the Euclidean distance of their levels, taking the
+ * access points seen by only one of them at {@link Fingerprint#MISSING_RSSI}. The k nearest
+ * training samples vote for their location, weighted by the inverse of their distance.
+ *
+ * The training scans are kept in a {@link BssidIndex}, so only the ones sharing some
+ * access point with the sample are compared with it, and samples can be added at any time.
+ */
+class KnnModel {
+
+    private final int k;
+    private final BssidIndex index;
+    private final List<String> locations;
+
+    KnnModel(int k) {
+        this.k = k;
+        this.index = new BssidIndex();
+        this.locations = new ArrayList<>();
+    }
+
+    /**
+     * Add a training sample, if it is valid and it has a location.
+     */
+    synchronized void add(Sample sample) {
+        if (!sample.isValid() || sample.getLocation() == null)
+            return;
+
+        index.add(Fingerprint.of(sample));
+        locations.add(sample.getLocation());
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return Returns the location of the sample or null if no training sample shares an access point with it.
+     */
+    synchronized String classify(Sample sample) {
+        BssidIndex.Candidates candidates = index.search(Fingerprint.of(sample));
+
+        // The k nearest so far, sorted by distance.
+        int n = Math.min(k, candidates.size);
+        long[] nearestDistances = new long[n];
+        int[] nearest = new int[n];
+        int found = 0;
+
+        for (int c = 0; c < candidates.size; c++) {
+            int i = candidates.ids[c];
+            long distance = candidates.distances[c];
+            if (found == n && distance >= nearestDistances[n - 1])
+                continue;
+
+            int position = (found < n) ? found++ : n - 1;
+            while (position > 0 && nearestDistances[position - 1] > distance) {
+                nearestDistances[position] = nearestDistances[position - 1];
+                nearest[position] = nearest[position - 1];
+                position--;
+            }
+            nearestDistances[position] = distance;
+            nearest[position] = i;
+        }
+
+        Map<String, Double> votes = new HashMap<>();
+        String best = null;
+        double bestVotes = -1;
+        for (int i = 0; i < found; i++) {
+            String location = locations.get(nearest[i]);
+            Double previous = votes.get(location);
+            double vote = ((previous == null) ? 0 : previous) + 1 / (Math.sqrt(nearestDistances[i]) + 1);
+            votes.put(location, vote);
+            if (vote > bestVotes) {
+                best = location;
+                bestVotes = vote;
+            }
+        }
+
+        return best;
+    }
+
+}
@@ -0,0 +1,98 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * Infers the location of a sample on the device, from the training samples taken while
+ * the user was configured, so a location is known even without connection.
+ */
+public interface LocationClassifier extends Service {
+
+    class Evaluation {
+
+        private final int trainingSamples;
+        private final int testSamples;
+        private final int hits;
+        private final double averageMillis;
+        private final double maxMillis;
+
+        Evaluation(int trainingSamples, int testSamples, int hits, double averageMillis, double maxMillis) {
+            this.trainingSamples = trainingSamples;
+            this.testSamples = testSamples;
+            this.hits = hits;
+            this.averageMillis = averageMillis;
+            this.maxMillis = maxMillis;
+        }
+
+        public int getTrainingSamples() {
+            return trainingSamples;
+        }
+
+        public int getTestSamples() {
+            return testSamples;
+        }
+
+        public double getAccuracy() {
+            return (testSamples == 0) ? 0 : (double) hits / testSamples;
+        }
+
+        public double getAverageMillis() {
+            return averageMillis;
+        }
+
+        public double getMaxMillis() {
+            return maxMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Evaluation{" +
+                    "trainingSamples=" + trainingSamples +
+                    ", testSamples=" + testSamples +
+                    ", accuracy=" + getAccuracy() +
+                    ", averageMillis=" + averageMillis +
+                    ", maxMillis=" + maxMillis +
+                    '}';
+        }
+
+    }
+
+    /**
+     * Replace the training samples. Only the valid samples with a location are used.
+     * They are persisted, so the classifier is ready after the app is restarted.
+     */
+    void train(List<Sample> samples);
+
+    /**
+     * Add a training sample to the current ones, e.g. a sample the user has validated.
+     * It is ignored if it isn't valid or it doesn't have a location.
+     */
+    void addTrainingSample(Sample sample);
+
+    /**
+     * Build the model from the persisted training samples if it hasn't been yet, which
+     * reads the whole training set. The first call to the rest of methods builds it otherwise.
+     */
+    void load();
+
+    boolean isTrained();
+
+    /**
+     * Classify a sample.
+     *
+     * @return Returns the name of the location, or null if the classifier isn't trained or
+     * none of the training samples has seen any of the access points of the sample.
+     */
+    String classify(Sample sample);
+
+    /**
+     * Train a classifier with part of the training samples and classify the rest with it.
+     *
+     * @param testFraction The fraction of the training samples held out to be classified.
+     * @return Returns the accuracy and the latency of the classification of the held-out samples.
+     */
+    Evaluation evaluate(double testFraction);
+
+}
@@ -0,0 +1,126 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.repositories.SampleRepository;
+import es.uji.al259348.sliwandroid.core.repositories.log.LogSampleRepository;
+
+public class LocationClassifierImpl extends AbstractService implements LocationClassifier {
+
+    private static final String TRAINING_SAMPLES_LOG_NAME = "trainingSamplesLog";
+
+    // The model is shared by every instance, it is built from the training samples the first time it is needed.
+    private static KnnModel model;
+
+    private SampleRepository trainingSampleRepository;
+    private int k;
+
+    public LocationClassifierImpl(Context context) {
+        super(context);
+        this.trainingSampleRepository = new LogSampleRepository(context, TRAINING_SAMPLES_LOG_NAME);
+        this.k = context.getResources().getInteger(R.integer.classifierNeighbours);
+    }
+
+    @Override
+    public void onDestroy() {
+
+    }
+
+    private KnnModel getModel() {
+        synchronized (LocationClassifierImpl.class) {
+            if (model == null) {
+                model = new KnnModel(k);
+                for (Sample sample : trainingSampleRepository.streamOldest(0))
+                    model.add(sample);
+                Log.d("LocationClassifier", "The model has been loaded with " + model.size() + " training samples.");
+            }
+            return model;
+        }
+    }
+
+    @Override
+    public void train(List<Sample> samples) {
+        List<Sample> trainingSamples = new ArrayList<>(samples.size());
+        for (Sample sample : samples) {
+            if (sample.isValid() && sample.getLocation() != null)
+                trainingSamples.add(sample);
+        }
+
+        synchronized (LocationClassifierImpl.class) {
+            trainingSampleRepository.removeAll(trainingSampleRepository.findAll());
+            trainingSampleRepository.saveAll(trainingSamples);
+            model = null;
+        }
+
+        Log.d("LocationClassifier", "Trained with " + trainingSamples.size() + " samples: " + evaluate(0.2));
+    }
+
+    @Override
+    public void addTrainingSample(Sample sample) {
+        if (!sample.isValid() || sample.getLocation() == null)
+            return;
+
+        synchronized (LocationClassifierImpl.class) {
+            trainingSampleRepository.save(sample);
+            if (model != null)
+                model.add(sample);
+        }
+    }
+
+    @Override
+    public void load() {
+        getModel();
+    }
+
+    @Override
+    public boolean isTrained() {
+        return getModel().size() > 0;
+    }
+
+    @Override
+    public String classify(Sample sample) {
+        long start = System.nanoTime();
+        String location = getModel().classify(sample);
+        Log.d("LocationClassifier", "Sample classified as " + location + " in " + (System.nanoTime() - start) / 1000 + " us.");
+        return location;
+    }
+
+    @Override
+    public Evaluation evaluate(double testFraction) {
+        List<Sample> samples = trainingSampleRepository.findAll();
+        Collections.shuffle(samples, new Random(samples.size()));
+
+        int testSize = (int) Math.round(samples.size() * testFraction);
+        List<Sample> test = samples.subList(0, testSize);
+
+        KnnModel heldOutModel = new KnnModel(k);
+        for (Sample sample : samples.subList(testSize, samples.size()))
+            heldOutModel.add(sample);
+
+        int hits = 0;
+        long totalNanos = 0;
+        long maxNanos = 0;
+        for (Sample sample : test) {
+            long start = System.nanoTime();
+            String location = heldOutModel.classify(sample);
+            long nanos = System.nanoTime() - start;
+
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            if (sample.getLocation().equals(location))
+                hits++;
+        }
+
+        double averageMillis = test.isEmpty() ? 0 : totalNanos / 1e6 / test.size();
+        return new Evaluation(heldOutModel.size(), test.size(), hits, averageMillis, maxNanos / 1e6);
+    }
+
+}
@@ -1,5 +1,7 @@
 package es.uji.al259348.sliwandroid.core.services;
 
+import java.util.Map;
+
 import rx.Observable;
 
 public interface MessagingService extends Service {
@@ -7,4 +9,36 @@ public interface MessagingService extends Service {
     Observable<Void> publish(String topic, String msg);
     Observable<String> request(String topic, String msg);
 
+    /**
+     * Publish a binary payload, e.g. samples in the compact wire format.
+     */
+    Observable<Void> publish(String topic, byte[] payload);
+
+    /**
+     * Make a request with a binary payload. The response is still a string.
+     */
+    Observable<String> request(String topic, byte[] payload);
+
+    /**
+     * Set the time to wait for the response of the requests made to the topics
+     * matching the given filter. MQTT wildcards (+ and #) are allowed.
+     *
+     * @param topicFilter The topic filter, e.g. "users/+/configure".
+     * @param timeoutMillis The timeout in milliseconds.
+     */
+    void setRequestTimeout(String topicFilter, long timeoutMillis);
+
+    /**
+     * Set how the payloads are compressed before they are published.
+     *
+     * @param stage The compression stage, or null to disable the compression.
+     * @param thresholdBytes The minimum size of a payload to be compressed.
+     */
+    void setCompression(CompressionStage stage, int thresholdBytes);
+
+    /**
+     * Get the compression statistics by kind of topic, e.g. "users/+/configure".
+     */
+    Map<String, PayloadCompressor.Stats> getCompressionStats();
+
 }
@@ -3,196 +3,66 @@ package es.uji.al259348.sliwandroid.core.services;
 import android.content.Context;
 import android.util.Log;
 
-import org.eclipse.paho.android.service.MqttAndroidClient;
-import org.eclipse.paho.client.mqttv3.IMqttActionListener;
-import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
-import org.eclipse.paho.client.mqttv3.IMqttToken;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
-import org.eclipse.paho.client.mqttv3.MqttException;
-import org.eclipse.paho.client.mqttv3.MqttMessage;
-import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
-
 import java.io.InterruptedIOException;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import es.uji.al259348.sliwandroid.core.R;
 import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
 
 public class MessagingServiceImpl extends AbstractService implements MessagingService {
 
-    public static final int DEFAULT_REQUEST_TIMEOUT = 5000;
+    private MqttConnectionManager connectionManager;
+    private MqttRequestDispatcher requestDispatcher;
+    private PayloadCompressor payloadCompressor;
+    private Scheduler timeoutScheduler;
 
-    private MqttAndroidClient mqttClient;
-    private MqttConnectOptions mqttConnectOptions;
+    private long defaultRequestTimeout;
+    private Map<String, Long> requestTimeouts;
 
     public MessagingServiceImpl(Context context) {
-        super(context);
-        createClientFromContext();
+        this(context,
+                MqttConnectionManager.getInstance(context),
+                MqttRequestDispatcher.getInstance(context),
+                PayloadCompressor.getInstance(context),
+                Schedulers.computation());
     }
 
-    private void createClientFromContext() {
-        String brokerHost = getContext().getResources().getString(R.string.mqtt_broker_host);
-        String brokerUser = getContext().getResources().getString(R.string.mqtt_broker_user);
-        String brokerPass = getContext().getResources().getString(R.string.mqtt_broker_pass);
-        String clientId = getContext().getResources().getString(R.string.mqtt_client_id) + "-" + UUID.randomUUID().toString();
-
-        mqttClient = new MqttAndroidClient(getContext(), brokerHost, clientId, new MemoryPersistence());
-
-        mqttConnectOptions = new MqttConnectOptions();
-        mqttConnectOptions.setCleanSession(true);
-        mqttConnectOptions.setUserName(brokerUser);
-        mqttConnectOptions.setPassword(brokerPass.toCharArray());
+    MessagingServiceImpl(Context context, MqttConnectionManager connectionManager, MqttRequestDispatcher requestDispatcher,
+                         PayloadCompressor payloadCompressor, Scheduler timeoutScheduler) {
+        super(context);
+        this.connectionManager = connectionManager;
+        this.requestDispatcher = requestDispatcher;
+        this.payloadCompressor = payloadCompressor;
+        this.timeoutScheduler = timeoutScheduler;
+        this.defaultRequestTimeout = context.getResources().getInteger(R.integer.requestTimeoutInMillis);
+        this.requestTimeouts = new ConcurrentHashMap<>();
     }
 
     @Override
     public void onDestroy() {
-        mqttClient.unregisterResources();
-    }
-
-    private Observable<Void> connectAction() {
-        return Observable.create(subscriber -> {
-            Log.d("MQTT", "Connecting... | " + Thread.currentThread().getName());
-            if (mqttClient.isConnected()) {
-                Log.d("MQTT", "Already connected! | " + Thread.currentThread().getName());
-                subscriber.onCompleted();
-            } else {
-                try {
-                    IMqttToken token = mqttClient.connect(mqttConnectOptions);
-                    token.setActionCallback(new IMqttActionListener() {
-                        @Override
-                        public void onSuccess(IMqttToken iMqttToken) {
-                            Log.d("MQTT", "Connected successfully! | " + Thread.currentThread().getName());
-                            subscriber.onCompleted();
-                        }
-
-                        @Override
-                        public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                            Log.d("MQTT", "Connection error! | " + Thread.currentThread().getName());
-                            subscriber.onError(throwable);
-                            mqttClient.unregisterResources();
-                        }
-                    });
-                } catch (MqttException e) {
-                    Log.d("MQTT", "Connection error! | " + Thread.currentThread().getName());
-                    subscriber.onError(e);
-                }
-            }
-        });
-    }
-
-    private Observable<Void> disconnectAction() {
-        return Observable.create(subscriber -> {
-            Log.d("MQTT", "Disconnecting... | " + Thread.currentThread().getName());
-            if (!mqttClient.isConnected()) {
-                Log.d("MQTT", "Already disconnected! | " + Thread.currentThread().getName());
-                subscriber.onCompleted();
-            } else {
-                try {
-                    IMqttToken token = mqttClient.disconnect();
-                    token.setActionCallback(new IMqttActionListener() {
-                        @Override
-                        public void onSuccess(IMqttToken iMqttToken) {
-                            Log.d("MQTT", "Disconnected successfully! | " + Thread.currentThread().getName());
-                            subscriber.onCompleted();
-                            mqttClient.unregisterResources();
-                        }
-
-                        @Override
-                        public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                            Log.d("MQTT", "Disconnection error! | " + Thread.currentThread().getName());
-                            subscriber.onError(throwable);
-                        }
-                    });
-                } catch (MqttException e) {
-                    Log.d("MQTT", "Disconnection error! | " + Thread.currentThread().getName());
-                    subscriber.onError(e);
-                }
-            }
-        });
-    }
-
-    private Observable<Void> subscribeAction(String topic) {
-        return Observable.create(subscriber -> {
-            Log.d("MQTT", "Subscribing to topic: " + topic + " ... | " + Thread.currentThread().getName());
-            try {
-                IMqttToken token = mqttClient.subscribe(topic, 2);
-                token.setActionCallback(new IMqttActionListener() {
-                    @Override
-                    public void onSuccess(IMqttToken iMqttToken) {
-                        Log.d("MQTT", "Subscribed successfully! | " + Thread.currentThread().getName());
-                        subscriber.onCompleted();
-                    }
-
-                    @Override
-                    public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                        Log.d("MQTT", "Subscription error! | " + Thread.currentThread().getName());
-                        subscriber.onError(throwable);
-                    }
-                });
-            } catch (MqttException e) {
-                Log.d("MQTT", "Subscription error! | " + Thread.currentThread().getName());
-                subscriber.onError(e);
-            }
-        });
-    }
-
-    private Observable<Void> unsubscribeAction(String topic) {
-        return Observable.create(subscriber -> {
-            Log.d("MQTT", "Unsubscribing from topic: " + topic + " ... | " + Thread.currentThread().getName());
-            try {
-                IMqttToken token = mqttClient.unsubscribe(topic);
-                token.setActionCallback(new IMqttActionListener() {
-                    @Override
-                    public void onSuccess(IMqttToken iMqttToken) {
-                        Log.d("MQTT", "Unsubscribed successfully! | " + Thread.currentThread().getName());
-                        subscriber.onCompleted();
-                    }
-
-                    @Override
-                    public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                        Log.d("MQTT", "Unsubscription error! | " + Thread.currentThread().getName());
-                        subscriber.onError(throwable);
-                    }
-                });
-            } catch (MqttException e) {
-                Log.d("MQTT", "Unsubscription error! | " + Thread.currentThread().getName());
-                subscriber.onError(e);
-            }
-        });
+        // The connection is shared, it will be closed by the manager once it is idle.
     }
 
-    private Observable<Void> publishAction(String topic, String msg) {
-        return Observable.create(subscriber -> {
-            Log.d("MQTT", "Publishing to topic: " + topic + " ... | " + Thread.currentThread().getName());
-            try {
-                IMqttDeliveryToken token = mqttClient.publish(topic, msg.getBytes(), 2, false);
-                token.setActionCallback(new IMqttActionListener() {
-                    @Override
-                    public void onSuccess(IMqttToken iMqttToken) {
-                        Log.d("MQTT", "Published successfully! | " + Thread.currentThread().getName());
-                        subscriber.onCompleted();
-                    }
-
-                    @Override
-                    public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
-                        Log.d("MQTT", "Publish error! | " + Thread.currentThread().getName());
-                        subscriber.onError(throwable);
-                    }
-                });
-            } catch (MqttException e) {
-                Log.d("MQTT", "Publish error! | " + Thread.currentThread().getName());
-                subscriber.onError(e);
-            }
-        });
+    @Override
+    public Observable<Void> publish(String topic, String msg) {
+        return publish(topic, msg.getBytes());
     }
 
     @Override
-    public Observable<Void> publish(String topic, String msg) {
-        return Observable.concat(
-                connectAction(),
-                publishAction(topic, msg),
-                disconnectAction()
+    public Observable<Void> publish(String topic, byte[] payload) {
+        return Observable.using(
+                connectionManager::acquire,
+                connection -> Observable.concat(
+                        connection.connect(),
+                        connection.publish(topic, payloadCompressor.compress(topic, payload))
+                ),
+                MqttConnectionManager::release
         );
     }
 
@@ -209,50 +79,95 @@ public class MessagingServiceImpl extends AbstractService implements MessagingSe
     //      Timeout -> InterruptedIOException (No es posible conectarse al servidor: tiempo de espera agotado.)
     @Override
     public Observable<String> request(String topic, String msg) {
+        return request(topic, msg.getBytes());
+    }
+
+    @Override
+    public Observable<String> request(String topic, byte[] payload) {
+        return Observable.using(
+                connectionManager::acquire,
+                connection -> request(connection, topic, payloadCompressor.compress(topic, payload)),
+                MqttConnectionManager::release
+        );
+    }
+
+    private Observable<String> request(MqttConnectionManager connection, String topic, byte[] payload) {
         return Observable.create(subscriber -> {
 
             Log.d("MessageService", "Requesting to topic: " + topic + " ... | " + Thread.currentThread().getName());
 
-            createClientFromContext();
+            // Only one terminal event (response, error or timeout) reaches the subscriber.
+            AtomicBoolean finished = new AtomicBoolean(false);
 
-            mqttClient.setCallback(new MqttCallback() {
-                @Override
-                public void connectionLost(Throwable throwable) {
-                    Log.d("MessageService", "The connection has been lost while making a request! | " + Thread.currentThread().getName());
-                }
+            Scheduler.Worker timeoutWorker = timeoutScheduler.createWorker();
+            subscriber.add(timeoutWorker);
 
-                @Override
-                public void messageArrived(String s, MqttMessage mqttMessage) throws Exception {
+            String correlationId = requestDispatcher.register(response -> {
+                if (finished.compareAndSet(false, true)) {
                     Log.d("MessageService", "The response has been successfully received! | " + Thread.currentThread().getName());
-                    subscriber.onNext(new String(mqttMessage.getPayload()));
+                    timeoutWorker.unsubscribe();
+                    subscriber.onNext(response);
+                    subscriber.onCompleted();
+                }
+            });
 
-                    Observable.concat(
-                            unsubscribeAction(topic + "/response"),
-                            disconnectAction()
-                    ).doOnError(subscriber::onError).doOnCompleted(subscriber::onCompleted).subscribe();
+            // Also when the subscriber goes away first, e.g. the drain's deadline, so the handler isn't kept.
+            subscriber.add(Subscriptions.create(() -> requestDispatcher.unregister(correlationId)));
+
+            timeoutWorker.schedule(() -> {
+                if (finished.compareAndSet(false, true)) {
+                    Log.d("MessageService", "The request to topic " + topic + " has timed out. | " + Thread.currentThread().getName());
+                    requestDispatcher.unregister(correlationId);
+                    subscriber.onError(new InterruptedIOException("No es posible conectarse al servidor: tiempo de espera agotado."));
                 }
+            }, getRequestTimeout(topic), TimeUnit.MILLISECONDS);
 
-                @Override
-                public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
-                    Log.d("MessageService", "The request has been successfully delivered! | " + Thread.currentThread().getName());
+            Observable.concat(
+                    connection.connect(),
+                    connection.publish(MqttRequestDispatcher.requestTopic(topic, correlationId), payload)
+            ).subscribe((s) -> {}, throwable -> {
+                if (finished.compareAndSet(false, true)) {
+                    timeoutWorker.unsubscribe();
+                    requestDispatcher.unregister(correlationId);
+                    subscriber.onError(throwable);
                 }
             });
 
-            Observable.concat(
-                    connectAction(),
-                    subscribeAction(topic + "/response"),
-                    publishAction(topic + "/request", msg)
-            ).subscribe((s) -> {}, subscriber::onError);
+        });
+    }
+
+    @Override
+    public void setRequestTimeout(String topicFilter, long timeoutMillis) {
+        requestTimeouts.put(topicFilter, timeoutMillis);
+    }
 
-            try {
-                Thread.sleep(DEFAULT_REQUEST_TIMEOUT);
-                mqttClient.unregisterResources();
-                subscriber.onError(new InterruptedIOException("No es posible conectarse al servidor: tiempo de espera agotado."));
-            } catch (InterruptedException e) {
-                subscriber.onError(e.getCause());
+    @Override
+    public void setCompression(CompressionStage stage, int thresholdBytes) {
+        payloadCompressor.setCompression(stage, thresholdBytes);
+    }
+
+    @Override
+    public Map<String, PayloadCompressor.Stats> getCompressionStats() {
+        return payloadCompressor.getStats();
+    }
+
+    /**
+     * Get the timeout for a request to the given topic. When several topic filters match
+     * the topic, the longest (most specific) one wins.
+     */
+    long getRequestTimeout(String topic) {
+        long timeout = defaultRequestTimeout;
+        int bestLength = -1;
+
+        for (Map.Entry<String, Long> entry : requestTimeouts.entrySet()) {
+            String topicFilter = entry.getKey();
+            if (topicFilter.length() > bestLength && MqttConnectionManager.topicMatches(topicFilter, topic)) {
+                timeout = entry.getValue();
+                bestLength = topicFilter.length();
             }
+        }
 
-        });
+        return timeout;
     }
 
 }
@@ -0,0 +1,119 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+/**
+ * Tells whether the user is still or moving from the readings of the accelerometer.
+ *
+ * The readings are grouped in windows and the variance of the magnitude of the
+ * acceleration is computed for each one, which doesn't depend on how the device is
+ * oriented. A window over the threshold is motion, and the user is still once there
+ * hasn't been motion for a while. A significant motion reported by the system is motion
+ * too, so the accelerometer can be turned off while still.
+ *
+ * It doesn't depend on Android, the readings are fed with their timestamps, so recorded
+ * traces can be replayed through it.
+ */
+public class MotionDetector {
+
+    public interface Listener {
+
+        void onStill();
+        void onMoving();
+
+    }
+
+    /**
+     * Windows with fewer readings, e.g. because the batched readings have been dropped
+     * while the device was sleeping, are discarded.
+     */
+    private static final int MIN_READINGS_PER_WINDOW = 5;
+
+    private final double varianceThreshold;
+    private final long windowNanos;
+    private final long stillAfterNanos;
+
+    private Listener listener;
+
+    private boolean still;
+    private long lastMotionNanos = -1;
+
+    private long windowStartNanos = -1;
+    private int count;
+    private double mean;
+    private double m2;
+
+    /**
+     * @param varianceThreshold The variance, in (m/s^2)^2, over which a window is motion.
+     * @param windowMillis The length of a window.
+     * @param stillAfterMillis The time without motion after which the user is still.
+     */
+    public MotionDetector(double varianceThreshold, long windowMillis, long stillAfterMillis) {
+        this.varianceThreshold = varianceThreshold;
+        this.windowNanos = windowMillis * 1000000L;
+        this.stillAfterNanos = stillAfterMillis * 1000000L;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized boolean isStill() {
+        return still;
+    }
+
+    /**
+     * Feed a reading of the accelerometer.
+     *
+     * @param timestampNanos The time of the reading, as the timestamp of a sensor event.
+     */
+    public synchronized void onAcceleration(long timestampNanos, float x, float y, float z) {
+        if (lastMotionNanos < 0)
+            lastMotionNanos = timestampNanos;
+
+        if (windowStartNanos < 0 || timestampNanos - windowStartNanos >= windowNanos) {
+            if (windowStartNanos >= 0)
+                onWindowEnd(timestampNanos);
+            windowStartNanos = timestampNanos;
+            count = 0;
+            mean = 0;
+            m2 = 0;
+        }
+
+        // Welford's online variance of the magnitude.
+        double magnitude = Math.sqrt(x * x + y * y + z * z);
+        count++;
+        double delta = magnitude - mean;
+        mean += delta / count;
+        m2 += delta * (magnitude - mean);
+    }
+
+    /**
+     * Feed a significant motion reported by the system.
+     */
+    public synchronized void onSignificantMotion(long timestampNanos) {
+        onMotion(timestampNanos);
+    }
+
+    private void onWindowEnd(long timestampNanos) {
+        if (count < MIN_READINGS_PER_WINDOW)
+            return;
+
+        double variance = m2 / (count - 1);
+        if (variance > varianceThreshold) {
+            onMotion(timestampNanos);
+        } else if (!still && timestampNanos - lastMotionNanos >= stillAfterNanos) {
+            still = true;
+            if (listener != null)
+                listener.onStill();
+        }
+    }
+
+    private void onMotion(long timestampNanos) {
+        lastMotionNanos = timestampNanos;
+        if (still) {
+            still = false;
+            if (listener != null)
+                listener.onMoving();
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+/**
+ * Motion of the user, used to suspend the periodic sampling while the user is still.
+ */
+public interface MotionService extends Service {
+
+    /**
+     * Start monitoring the motion of the user, if it is enabled and the device has an
+     * accelerometer. It can be called again, e.g. in case the monitor has been killed.
+     */
+    void startMonitoring();
+
+    void stopMonitoring();
+
+    /**
+     * Get whether the user has been still long enough for the sampling to be suspended.
+     */
+    boolean isStill();
+
+    void setStill(boolean still);
+
+}
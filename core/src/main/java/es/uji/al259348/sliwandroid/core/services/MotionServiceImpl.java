@@ -0,0 +1,60 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.util.Log;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.android.services.MotionMonitorService;
+
+public class MotionServiceImpl extends AbstractService implements MotionService {
+
+    private static final String SHARED_PREFERENCES_NAME = "MotionServiceSharedPreferences";
+    private static final String SHARED_PREFERENCES_KEY_STILL = "still";
+
+    private SharedPreferences sharedPreferences;
+    private boolean enabled;
+
+    public MotionServiceImpl(Context context) {
+        super(context);
+        this.sharedPreferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+
+        SensorManager sensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        this.enabled = context.getResources().getBoolean(R.bool.motionDutyCycling)
+                && sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) != null;
+    }
+
+    @Override
+    public void onDestroy() {
+
+    }
+
+    @Override
+    public void startMonitoring() {
+        if (enabled)
+            getContext().startService(new Intent(getContext(), MotionMonitorService.class));
+    }
+
+    @Override
+    public void stopMonitoring() {
+        getContext().stopService(new Intent(getContext(), MotionMonitorService.class));
+        setStill(false);
+    }
+
+    @Override
+    public boolean isStill() {
+        return enabled && sharedPreferences.getBoolean(SHARED_PREFERENCES_KEY_STILL, false);
+    }
+
+    @Override
+    public void setStill(boolean still) {
+        Log.d("MotionService", still ? "The user is still." : "The user is moving.");
+        sharedPreferences.edit()
+                .putBoolean(SHARED_PREFERENCES_KEY_STILL, still)
+                .apply();
+    }
+
+}
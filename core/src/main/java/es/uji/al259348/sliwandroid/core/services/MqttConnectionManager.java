@@ -0,0 +1,370 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.eclipse.paho.android.service.MqttAndroidClient;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.Installation;
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.schedulers.Schedulers;
+
+/**
+ * Process-wide MQTT connection shared by every {@link MessagingServiceImpl}.
+ *
+ * Each operation acquires the connection while it runs and releases it when it
+ * finishes. The session stays open while there are users and it is closed once
+ * it has been idle for the linger period.
+ */
+public class MqttConnectionManager {
+
+    public interface MessageListener {
+
+        void onMessage(String topic, MqttMessage mqttMessage);
+
+    }
+
+    /**
+     * Creates the client every time the connection is opened.
+     */
+    interface ClientFactory {
+
+        MqttAndroidClient create();
+
+    }
+
+    private static MqttConnectionManager instance;
+
+    public synchronized static MqttConnectionManager getInstance(Context context) {
+
+        if (context == null)
+            throw new IllegalArgumentException();
+
+        if (instance == null)
+            instance = new MqttConnectionManager(context.getApplicationContext());
+
+        return instance;
+    }
+
+    private Context context;
+    private ClientFactory clientFactory;
+
+    private MqttAndroidClient mqttClient;
+    private MqttConnectOptions mqttConnectOptions;
+
+    private Map<String, MessageListener> standingSubscriptions;
+    private Queue<Subscriber<? super Void>> connectSubscribers;
+    private boolean connecting;
+    private boolean ready;
+
+    private int users;
+    private long lingerMillis;
+    private Scheduler.Worker lingerWorker;
+    private Subscription lingerSubscription;
+
+    private MqttConnectionManager(Context context) {
+        this(context, () -> createClient(context), Schedulers.computation());
+    }
+
+    MqttConnectionManager(Context context, ClientFactory clientFactory, Scheduler scheduler) {
+        this.context = context;
+        this.clientFactory = clientFactory;
+        this.standingSubscriptions = new ConcurrentHashMap<>();
+        this.connectSubscribers = new LinkedList<>();
+        this.lingerMillis = context.getResources().getInteger(R.integer.mqttConnectionLingerInMillis);
+        this.lingerWorker = scheduler.createWorker();
+
+        String brokerUser = context.getResources().getString(R.string.mqtt_broker_user);
+        String brokerPass = context.getResources().getString(R.string.mqtt_broker_pass);
+
+        mqttConnectOptions = new MqttConnectOptions();
+        mqttConnectOptions.setCleanSession(true);
+        mqttConnectOptions.setUserName(brokerUser);
+        mqttConnectOptions.setPassword(brokerPass.toCharArray());
+    }
+
+    private static MqttAndroidClient createClient(Context context) {
+        String brokerHost = context.getResources().getString(R.string.mqtt_broker_host);
+        String clientId = context.getResources().getString(R.string.mqtt_client_id) + "-" + Installation.getId(context);
+
+        return new MqttAndroidClient(context, brokerHost, clientId, new MemoryPersistence());
+    }
+
+    private MqttAndroidClient getClient() {
+        if (mqttClient == null) {
+            mqttClient = clientFactory.create();
+            mqttClient.setCallback(new MqttCallback() {
+                @Override
+                public void connectionLost(Throwable throwable) {
+                    Log.d("MQTT", "The connection has been lost! | " + Thread.currentThread().getName());
+                    onConnectionLost();
+                }
+
+                @Override
+                public void messageArrived(String topic, MqttMessage mqttMessage) throws Exception {
+                    dispatch(topic, mqttMessage);
+                }
+
+                @Override
+                public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken) {
+                    Log.d("MQTT", "The message has been successfully delivered! | " + Thread.currentThread().getName());
+                }
+            });
+        }
+        return mqttClient;
+    }
+
+    /**
+     * Register a new user of the connection. The connection won't be closed until
+     * every user has called {@link #release()}.
+     *
+     * @return Returns this manager, so it can be used as an {@link Observable#using} resource.
+     */
+    public synchronized MqttConnectionManager acquire() {
+        users++;
+        if (lingerSubscription != null) {
+            lingerSubscription.unsubscribe();
+            lingerSubscription = null;
+        }
+        return this;
+    }
+
+    /**
+     * Unregister a user of the connection. When there are no users left the
+     * connection is closed after the linger period.
+     */
+    public synchronized void release() {
+        users--;
+        if (users <= 0) {
+            users = 0;
+            Log.d("MQTT", "The connection is idle, it will be closed in " + lingerMillis + " ms.");
+            lingerSubscription = lingerWorker.schedule(this::closeIfIdle, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void closeIfIdle() {
+        lingerSubscription = null;
+        if (users > 0 || mqttClient == null)
+            return;
+
+        MqttAndroidClient client = mqttClient;
+        mqttClient = null;
+        ready = false;
+
+        Log.d("MQTT", "Disconnecting... | " + Thread.currentThread().getName());
+        try {
+            if (client.isConnected()) {
+                IMqttToken token = client.disconnect();
+                token.setActionCallback(new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken iMqttToken) {
+                        Log.d("MQTT", "Disconnected successfully! | " + Thread.currentThread().getName());
+                        client.unregisterResources();
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
+                        Log.d("MQTT", "Disconnection error! | " + Thread.currentThread().getName());
+                        client.unregisterResources();
+                    }
+                });
+            } else {
+                client.unregisterResources();
+            }
+        } catch (MqttException e) {
+            Log.d("MQTT", "Disconnection error! | " + Thread.currentThread().getName());
+            client.unregisterResources();
+        }
+    }
+
+    /**
+     * Subscribe to a topic filter for as long as this manager lives. The subscription
+     * is (re)established every time the connection is opened, before any operation
+     * waiting for the connection goes on.
+     */
+    public void addStandingSubscription(String topicFilter, MessageListener listener) {
+        standingSubscriptions.put(topicFilter, listener);
+        synchronized (this) {
+            ready = false;
+        }
+    }
+
+    private void dispatch(String topic, MqttMessage mqttMessage) {
+        for (Map.Entry<String, MessageListener> entry : standingSubscriptions.entrySet()) {
+            if (topicMatches(entry.getKey(), topic)) {
+                entry.getValue().onMessage(topic, mqttMessage);
+                return;
+            }
+        }
+        Log.d("MQTT", "Message arrived to " + topic + " with nobody listening. | " + Thread.currentThread().getName());
+    }
+
+    private synchronized void onConnectionLost() {
+        ready = false;
+    }
+
+    /**
+     * Check whether a topic name matches an MQTT topic filter, which may contain
+     * the single level (+) and multi level (#) wildcards.
+     */
+    static boolean topicMatches(String topicFilter, String topic) {
+        String[] filterLevels = topicFilter.split("/", -1);
+        String[] topicLevels = topic.split("/", -1);
+
+        for (int i = 0; i < filterLevels.length; i++) {
+            if (filterLevels[i].equals("#"))
+                return true;
+            if (i >= topicLevels.length)
+                return false;
+            if (!filterLevels[i].equals("+") && !filterLevels[i].equals(topicLevels[i]))
+                return false;
+        }
+
+        return filterLevels.length == topicLevels.length;
+    }
+
+    /**
+     * Make sure the connection is open and the standing subscriptions are in place.
+     * Concurrent calls share the same connection attempt.
+     */
+    public Observable<Void> connect() {
+        return Observable.create(subscriber -> {
+            synchronized (this) {
+                Log.d("MQTT", "Connecting... | " + Thread.currentThread().getName());
+                MqttAndroidClient client = getClient();
+                if (client.isConnected() && ready) {
+                    Log.d("MQTT", "Already connected! | " + Thread.currentThread().getName());
+                    subscriber.onCompleted();
+                    return;
+                }
+
+                connectSubscribers.add(subscriber);
+                if (connecting) {
+                    Log.d("MQTT", "Another connection is in process, waiting for it. | " + Thread.currentThread().getName());
+                    return;
+                }
+
+                connecting = true;
+                Observable<Void> session = client.isConnected() ? Observable.empty() : connectAction(client);
+                Observable.concat(session, subscribeAction(client, standingSubscriptions.keySet()))
+                        .subscribe(aVoid -> {}, this::onConnectFinished, () -> onConnectFinished(null));
+            }
+        });
+    }
+
+    private Observable<Void> connectAction(MqttAndroidClient client) {
+        return Observable.create(subscriber -> {
+            try {
+                IMqttToken token = client.connect(mqttConnectOptions);
+                token.setActionCallback(new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken iMqttToken) {
+                        Log.d("MQTT", "Connected successfully! | " + Thread.currentThread().getName());
+                        subscriber.onCompleted();
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
+                        Log.d("MQTT", "Connection error! | " + Thread.currentThread().getName());
+                        subscriber.onError(throwable);
+                    }
+                });
+            } catch (MqttException e) {
+                Log.d("MQTT", "Connection error! | " + Thread.currentThread().getName());
+                subscriber.onError(e);
+            }
+        });
+    }
+
+    private Observable<Void> subscribeAction(MqttAndroidClient client, Collection<String> topicFilters) {
+        return Observable.create(subscriber -> {
+            if (topicFilters.isEmpty()) {
+                subscriber.onCompleted();
+                return;
+            }
+
+            String[] topics = topicFilters.toArray(new String[topicFilters.size()]);
+            int[] qos = new int[topics.length];
+            Arrays.fill(qos, 2);
+
+            Log.d("MQTT", "Subscribing to topics: " + Arrays.toString(topics) + " ... | " + Thread.currentThread().getName());
+            try {
+                IMqttToken token = client.subscribe(topics, qos);
+                token.setActionCallback(new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken iMqttToken) {
+                        Log.d("MQTT", "Subscribed successfully! | " + Thread.currentThread().getName());
+                        subscriber.onCompleted();
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
+                        Log.d("MQTT", "Subscription error! | " + Thread.currentThread().getName());
+                        subscriber.onError(throwable);
+                    }
+                });
+            } catch (MqttException e) {
+                Log.d("MQTT", "Subscription error! | " + Thread.currentThread().getName());
+                subscriber.onError(e);
+            }
+        });
+    }
+
+    private synchronized void onConnectFinished(Throwable throwable) {
+        connecting = false;
+        ready = (throwable == null);
+        while (!connectSubscribers.isEmpty()) {
+            Subscriber<? super Void> subscriber = connectSubscribers.poll();
+            if (throwable == null)
+                subscriber.onCompleted();
+            else
+                subscriber.onError(throwable);
+        }
+    }
+
+    public Observable<Void> publish(String topic, byte[] payload) {
+        return Observable.create(subscriber -> {
+            Log.d("MQTT", "Publishing to topic: " + topic + " ... | " + Thread.currentThread().getName());
+            try {
+                IMqttDeliveryToken token = getClient().publish(topic, payload, 2, false);
+                token.setActionCallback(new IMqttActionListener() {
+                    @Override
+                    public void onSuccess(IMqttToken iMqttToken) {
+                        Log.d("MQTT", "Published successfully! | " + Thread.currentThread().getName());
+                        subscriber.onCompleted();
+                    }
+
+                    @Override
+                    public void onFailure(IMqttToken iMqttToken, Throwable throwable) {
+                        Log.d("MQTT", "Publish error! | " + Thread.currentThread().getName());
+                        subscriber.onError(throwable);
+                    }
+                });
+            } catch (MqttException e) {
+                Log.d("MQTT", "Publish error! | " + Thread.currentThread().getName());
+                subscriber.onError(e);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,102 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import es.uji.al259348.sliwandroid.core.R;
+
+/**
+ * Correlates the responses with the requests made over the shared connection.
+ *
+ * Every request is published to "&lt;topic&gt;/request/&lt;correlationId&gt;" and the backend
+ * answers to "&lt;topic&gt;/response/&lt;correlationId&gt;". A single standing subscription
+ * receives every response, which is handed to the pending request with the same id.
+ */
+public class MqttRequestDispatcher implements MqttConnectionManager.MessageListener {
+
+    public interface ResponseHandler {
+
+        void onResponse(String response);
+
+    }
+
+    private static MqttRequestDispatcher instance;
+
+    public synchronized static MqttRequestDispatcher getInstance(Context context) {
+
+        if (context == null)
+            throw new IllegalArgumentException();
+
+        if (instance == null) {
+            MqttConnectionManager connectionManager = MqttConnectionManager.getInstance(context);
+            String responseTopicFilter = context.getResources().getString(R.string.mqtt_response_topic_filter);
+
+            instance = new MqttRequestDispatcher(PayloadCompressor.getInstance(context));
+            connectionManager.addStandingSubscription(responseTopicFilter, instance);
+        }
+
+        return instance;
+    }
+
+    private PayloadCompressor payloadCompressor;
+    private Map<String, ResponseHandler> pendingRequests;
+
+    MqttRequestDispatcher(PayloadCompressor payloadCompressor) {
+        this.payloadCompressor = payloadCompressor;
+        this.pendingRequests = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Register a pending request.
+     *
+     * @param handler The handler that will receive the response.
+     * @return Returns the correlation id of the request.
+     */
+    public String register(ResponseHandler handler) {
+        String correlationId = UUID.randomUUID().toString();
+        pendingRequests.put(correlationId, handler);
+        return correlationId;
+    }
+
+    /**
+     * Forget a pending request, e.g. because it has timed out.
+     */
+    public void unregister(String correlationId) {
+        pendingRequests.remove(correlationId);
+    }
+
+    public int countPendingRequests() {
+        return pendingRequests.size();
+    }
+
+    public static String requestTopic(String topic, String correlationId) {
+        return topic + "/request/" + correlationId;
+    }
+
+    @Override
+    public void onMessage(String topic, MqttMessage mqttMessage) {
+        String correlationId = topic.substring(topic.lastIndexOf('/') + 1);
+
+        ResponseHandler handler = pendingRequests.remove(correlationId);
+        if (handler == null) {
+            Log.d("MqttRequestDispatcher", "There isn't a pending request for the response at " + topic + ", ignoring it.");
+            return;
+        }
+
+        try {
+            // The backend may compress the big responses the same way.
+            handler.onResponse(new String(payloadCompressor.decompress(mqttMessage.getPayload())));
+        } catch (IOException e) {
+            Log.d("MqttRequestDispatcher", "The response at " + topic + " can't be decompressed: " + e.getMessage());
+            handler.onResponse(new String(mqttMessage.getPayload()));
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import es.uji.al259348.sliwandroid.core.R;
+
+/**
+ * Compresses the payloads bigger than a threshold before they are published and keeps,
+ * for each kind of topic, how much they are compressed and how long it takes.
+ *
+ * The payload is only sent compressed, prefixed with the marker of the stage, when it
+ * actually gets smaller. The statistics are grouped by the topic with its id replaced
+ * by a wildcard, e.g. "users/+/configure".
+ */
+public class PayloadCompressor {
+
+    public static class Stats {
+
+        private long messages;
+        private long compressionAttempts;
+        private long compressedMessages;
+        private long originalBytes;
+        private long sentBytes;
+        private long compressionNanos;
+
+        Stats() {
+
+        }
+
+        Stats(Stats stats) {
+            this.messages = stats.messages;
+            this.compressionAttempts = stats.compressionAttempts;
+            this.compressedMessages = stats.compressedMessages;
+            this.originalBytes = stats.originalBytes;
+            this.sentBytes = stats.sentBytes;
+            this.compressionNanos = stats.compressionNanos;
+        }
+
+        public long getMessages() {
+            return messages;
+        }
+
+        public long getCompressedMessages() {
+            return compressedMessages;
+        }
+
+        public long getOriginalBytes() {
+            return originalBytes;
+        }
+
+        public long getSentBytes() {
+            return sentBytes;
+        }
+
+        /**
+         * Get the sent bytes divided by the original bytes, 1 when nothing has been saved.
+         */
+        public double getRatio() {
+            return (originalBytes == 0) ? 1 : (double) sentBytes / originalBytes;
+        }
+
+        /**
+         * Get the average time spent compressing a payload above the threshold, whether
+         * it was sent compressed or not.
+         */
+        public double getAverageCompressionMillis() {
+            return (compressionAttempts == 0) ? 0 : compressionNanos / 1e6 / compressionAttempts;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "messages=" + messages +
+                    ", compressedMessages=" + compressedMessages +
+                    ", originalBytes=" + originalBytes +
+                    ", sentBytes=" + sentBytes +
+                    ", ratio=" + getRatio() +
+                    ", compressionMillis=" + compressionNanos / 1e6 +
+                    '}';
+        }
+
+    }
+
+    private static PayloadCompressor instance;
+
+    public synchronized static PayloadCompressor getInstance(Context context) {
+
+        if (context == null)
+            throw new IllegalArgumentException();
+
+        if (instance == null) {
+            int threshold = context.getResources().getInteger(R.integer.compressionThresholdBytes);
+            instance = new PayloadCompressor(new DeflateCompressionStage(), threshold);
+        }
+
+        return instance;
+    }
+
+    private CompressionStage stage;
+    private int threshold;
+
+    private Map<String, Stats> stats;
+
+    PayloadCompressor(CompressionStage stage, int threshold) {
+        this.stage = stage;
+        this.threshold = threshold;
+        this.stats = new HashMap<>();
+    }
+
+    /**
+     * Set the compression stage and the size from which the payloads are compressed.
+     *
+     * @param stage The compression stage, or null to send every payload as it is.
+     * @param threshold The minimum size of a payload to be compressed, in bytes.
+     */
+    public synchronized void setCompression(CompressionStage stage, int threshold) {
+        this.stage = stage;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Get the payload to be sent to the given topic, compressed if it is worth it.
+     */
+    public byte[] compress(String topic, byte[] payload) {
+        CompressionStage stage;
+        int threshold;
+        synchronized (this) {
+            stage = this.stage;
+            threshold = this.threshold;
+        }
+
+        byte[] sent = payload;
+        boolean attempted = stage != null && payload.length >= threshold;
+        long nanos = 0;
+
+        if (attempted) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            try {
+                byte[] compressed = stage.compress(payload);
+                if (compressed.length + 1 < payload.length) {
+                    sent = new byte[compressed.length + 1];
+                    sent[0] = stage.getMarker();
+                    System.arraycopy(compressed, 0, sent, 1, compressed.length);
+                }
+            } catch (IOException e) {
+                Log.w("PayloadCompressor", "The payload couldn't be compressed, sending it as it is: " + e.getMessage());
+            }
+            nanos = SystemClock.elapsedRealtimeNanos() - start;
+        }
+
+        record(topic, payload.length, sent.length, attempted, nanos);
+        return sent;
+    }
+
+    /**
+     * Restore a payload received from the backend, if it has been compressed by the current stage.
+     */
+    public byte[] decompress(byte[] payload) throws IOException {
+        CompressionStage stage;
+        synchronized (this) {
+            stage = this.stage;
+        }
+
+        if (stage == null || payload.length == 0 || payload[0] != stage.getMarker())
+            return payload;
+
+        return stage.decompress(Arrays.copyOfRange(payload, 1, payload.length));
+    }
+
+    private synchronized void record(String topic, int originalBytes, int sentBytes, boolean attempted, long nanos) {
+        String key = statsKey(topic);
+        Stats topicStats = stats.get(key);
+        if (topicStats == null) {
+            topicStats = new Stats();
+            stats.put(key, topicStats);
+        }
+
+        topicStats.messages++;
+        topicStats.originalBytes += originalBytes;
+        topicStats.sentBytes += sentBytes;
+        topicStats.compressionNanos += nanos;
+        if (attempted)
+            topicStats.compressionAttempts++;
+        if (sentBytes != originalBytes) {
+            topicStats.compressedMessages++;
+            Log.d("PayloadCompressor", "Payload to " + topic + " compressed from " + originalBytes + " to " + sentBytes + " bytes in " + nanos / 1000 + " us.");
+        }
+    }
+
+    /**
+     * Get the statistics of each kind of topic since the process started.
+     */
+    public synchronized Map<String, Stats> getStats() {
+        Map<String, Stats> copy = new HashMap<>();
+        for (Map.Entry<String, Stats> entry : stats.entrySet())
+            copy.put(entry.getKey(), new Stats(entry.getValue()));
+        return copy;
+    }
+
+    /**
+     * Replace the levels between the first and the last one, where the topics carry
+     * their ids, so "samples/&lt;id&gt;/saveBatch" becomes "samples/+/saveBatch".
+     */
+    static String statsKey(String topic) {
+        String[] levels = topic.split("/", -1);
+        if (levels.length <= 2)
+            return topic;
+
+        StringBuilder sb = new StringBuilder(levels[0]);
+        for (int i = 1; i < levels.length - 1; i++)
+            sb.append("/+");
+        return sb.append('/').append(levels[levels.length - 1]).toString();
+    }
+
+}
@@ -0,0 +1,237 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import rx.Observable;
+
+/**
+ * Publishes a backlog of local samples keeping several requests in flight at once.
+ *
+ * The samples are split in batches and up to {@code window} batches are published
+ * concurrently. A batch that fails is retried with exponential backoff, and the whole
+ * drain gives up once the deadline is reached. The samples accepted by the backend are
+ * removed from the local storage as their acknowledgements arrive, and they aren't
+ * published again when the rest of their batch is retried.
+ */
+public class SampleDrain {
+
+    public static class Progress {
+
+        private final int total;
+        private final int accepted;
+        private final int rejected;
+        private final int failed;
+        private final long elapsedMillis;
+        private final List<Sample> lastBatch;
+
+        Progress(int total, int accepted, int rejected, int failed, long elapsedMillis, List<Sample> lastBatch) {
+            this.total = total;
+            this.accepted = accepted;
+            this.rejected = rejected;
+            this.failed = failed;
+            this.elapsedMillis = elapsedMillis;
+            this.lastBatch = lastBatch;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getAccepted() {
+            return accepted;
+        }
+
+        public int getRejected() {
+            return rejected;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * Get the samples of the batch that has just finished, whatever its outcome.
+         */
+        public List<Sample> getLastBatch() {
+            return lastBatch;
+        }
+
+        public double getSamplesPerSecond() {
+            return (elapsedMillis == 0) ? 0 : accepted * 1000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Progress{" +
+                    "total=" + total +
+                    ", accepted=" + accepted +
+                    ", rejected=" + rejected +
+                    ", failed=" + failed +
+                    ", elapsedMillis=" + elapsedMillis +
+                    ", samplesPerSecond=" + getSamplesPerSecond() +
+                    '}';
+        }
+
+    }
+
+    /**
+     * The outcome of publishing one batch. The samples accepted before a batch fails are
+     * kept, they have been removed from the local storage.
+     */
+    private static class BatchResult {
+
+        private final List<Sample> batch;
+        private final List<Sample> accepted;
+        private boolean failed;
+
+        BatchResult(List<Sample> batch) {
+            this.batch = batch;
+            this.accepted = new ArrayList<>();
+        }
+
+        /**
+         * Get the samples of the batch that haven't been accepted yet.
+         */
+        List<Sample> getPending() {
+            Set<String> acceptedIds = new HashSet<>();
+            for (Sample sample : accepted)
+                acceptedIds.add(sample.getId());
+
+            List<Sample> pending = new ArrayList<>(batch.size() - accepted.size());
+            for (Sample sample : batch) {
+                if (!acceptedIds.contains(sample.getId()))
+                    pending.add(sample);
+            }
+            return pending;
+        }
+
+    }
+
+    private SampleService sampleService;
+
+    private int batchSize;
+    private int window;
+    private int maxRetries;
+    private long initialBackoffMillis;
+    private long deadlineMillis;
+
+    public SampleDrain(Context context, SampleService sampleService) {
+        this.sampleService = sampleService;
+        this.batchSize = context.getResources().getInteger(R.integer.publishBatchMaxSamples);
+        this.window = context.getResources().getInteger(R.integer.publishDrainWindow);
+        this.maxRetries = context.getResources().getInteger(R.integer.publishDrainMaxRetries);
+        this.initialBackoffMillis = context.getResources().getInteger(R.integer.publishDrainInitialBackoffInMillis);
+        this.deadlineMillis = 1000L * context.getResources().getInteger(R.integer.publishDrainDeadlineInSeconds);
+    }
+
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    public void setRetries(int maxRetries, long initialBackoffMillis) {
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    public void setDeadline(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * Publish the given samples.
+     *
+     * @param samples The local samples to be published.
+     * @return Returns an observable emitting the progress of the drain every time a batch finishes.
+     */
+    public Observable<Progress> drain(List<Sample> samples) {
+        return drain(Observable.from(samples));
+    }
+
+    /**
+     * Publish the samples emitted by the given observable. Only the samples needed to
+     * fill the window are requested, so a lazy source is read as the drain advances.
+     *
+     * @param samples The local samples to be published.
+     * @return Returns an observable emitting the progress of the drain every time a batch finishes.
+     */
+    public Observable<Progress> drain(Observable<Sample> samples) {
+        return Observable.defer(() -> {
+            long start = SystemClock.elapsedRealtime();
+            AtomicInteger total = new AtomicInteger();
+
+            return samples
+                    .doOnNext(sample -> total.incrementAndGet())
+                    .buffer(batchSize)
+                    .flatMap(this::publishBatch, window)
+                    .takeUntil(Observable.timer(deadlineMillis, TimeUnit.MILLISECONDS))
+                    .scan(new Progress(0, 0, 0, 0, 0, Collections.<Sample>emptyList()), (progress, result) -> {
+                        int size = result.batch.size();
+                        int accepted = result.accepted.size();
+                        int rejected = result.failed ? 0 : size - accepted;
+                        int failed = result.failed ? size - accepted : 0;
+
+                        return new Progress(
+                                total.get(),
+                                progress.accepted + accepted,
+                                progress.rejected + rejected,
+                                progress.failed + failed,
+                                SystemClock.elapsedRealtime() - start,
+                                result.batch
+                        );
+                    })
+                    .skip(1);
+        });
+    }
+
+    /**
+     * Publish a batch. The service may split it, so every retry only publishes the samples
+     * that haven't been accepted by the previous attempts.
+     */
+    private Observable<BatchResult> publishBatch(List<Sample> batch) {
+        BatchResult result = new BatchResult(batch);
+
+        return Observable.defer(() -> sampleService.publishBatch(result.getPending()))
+                .doOnNext(accepted -> {
+                    sampleService.removeAll(accepted);
+                    result.accepted.addAll(accepted);
+                })
+                .retryWhen(this::backoff)
+                .lastOrDefault(null)
+                .map(accepted -> result)
+                .onErrorResumeNext(throwable -> {
+                    Log.d("SampleDrain", "The batch couldn't be published: " + throwable.getMessage());
+                    result.failed = true;
+                    return Observable.just(result);
+                });
+    }
+
+    private Observable<?> backoff(Observable<? extends Throwable> errors) {
+        return errors
+                .zipWith(Observable.range(1, maxRetries + 1), (error, attempt) -> {
+                    if (attempt > maxRetries)
+                        return Observable.<Long>error(error);
+
+                    long delay = initialBackoffMillis << (attempt - 1);
+                    Log.d("SampleDrain", "Retrying the batch in " + delay + " ms (attempt " + attempt + ").");
+                    return Observable.timer(delay, TimeUnit.MILLISECONDS);
+                })
+                .flatMap(retry -> retry);
+    }
+
+}
@@ -1,8 +1,10 @@
 package es.uji.al259348.sliwandroid.core.services;
 
+import java.util.Collection;
 import java.util.List;
 
 import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.repositories.BoundedSampleRepository;
 import rx.Observable;
 
 public interface SampleService extends Service {
@@ -10,10 +12,60 @@ public interface SampleService extends Service {
     Observable<Sample> take();
 
     Sample save(Sample sample);
+    List<Sample> saveAll(List<Sample> samples);
     void remove(Sample sample);
+    void removeAll(Collection<Sample> samples);
 
     long countLocalSamples();
     List<Sample> getLocalSamples();
 
+    /**
+     * Get the local samples, from the oldest to the newest, reading them from the
+     * storage page by page as they are requested.
+     */
+    Observable<Sample> streamLocalSamples();
+
+    /**
+     * Get how many local samples have been dropped because the local storage was full
+     * or they were too old.
+     */
+    BoundedSampleRepository.Counters getEvictionCounters();
+
     Observable<String> publish(Sample sample);
+
+    /**
+     * Tell the backend the user is still where the given sample was taken, instead of
+     * publishing the samples taken since then.
+     *
+     * @param sampleId The id of the last sample published.
+     * @param count The number of samples that haven't been published since then.
+     */
+    Observable<Void> publishStillHere(String sampleId, int count);
+
+    /**
+     * Publish several samples packing them in as few messages as possible. Each message
+     * is bounded by the maximum number of samples and bytes of a batch.
+     *
+     * @param samples The samples to be published.
+     * @return Returns, for each message, the samples that have been accepted by the backend.
+     */
+    Observable<List<Sample>> publishBatch(List<Sample> samples);
+
+    /**
+     * Set the limits of the batches made by {@link #publishBatch(List)}.
+     *
+     * @param maxSamples The maximum number of samples per message.
+     * @param maxBytes The maximum size of a message, unless a single sample is bigger.
+     */
+    void setBatchLimits(int maxSamples, int maxBytes);
+
+    /**
+     * Set the format of the samples published to the topics matching the given filter.
+     * MQTT wildcards (+ and #) are allowed.
+     *
+     * @param topicFilter The topic filter, e.g. "samples/+/saveBatch".
+     * @param format Either {@link SampleWireCodec#FORMAT_JSON} or {@link SampleWireCodec#FORMAT_BINARY}.
+     */
+    void setWireFormat(String topicFilter, String format);
+
 }
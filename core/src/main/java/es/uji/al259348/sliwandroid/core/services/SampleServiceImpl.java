@@ -4,11 +4,26 @@ import android.content.Context;
 import android.util.Log;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+import es.uji.al259348.sliwandroid.core.R;
 import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.repositories.BoundedSampleRepository;
+import es.uji.al259348.sliwandroid.core.repositories.SampleRepository;
+import es.uji.al259348.sliwandroid.core.repositories.log.LogSampleRepository;
 import es.uji.al259348.sliwandroid.core.repositories.sqlite.SQLiteSampleRepository;
 import rx.Observable;
 import rx.schedulers.Schedulers;
@@ -16,17 +31,93 @@ import rx.schedulers.Schedulers;
 public class SampleServiceImpl extends AbstractService implements SampleService {
 
     private static final String MESSAGING_PUBLISH_SAMPLE_REQUEST_TOPIC = "samples/%s/save";
+    private static final String MESSAGING_PUBLISH_BATCH_REQUEST_TOPIC = "samples/%s/saveBatch";
+    private static final String MESSAGING_PUBLISH_STILL_HERE_TOPIC = "samples/%s/stillHere";
+
+    /**
+     * A group of samples to be sent in a single message. In JSON the samples are kept
+     * encoded as they were measured, and the array is assembled from those bytes.
+     */
+    static class SampleBatch {
+
+        private List<Sample> samples = new ArrayList<>();
+        private List<byte[]> encodedSamples = new ArrayList<>();
+        private int bytes = 2;
+
+        void add(Sample sample, byte[] encoded, int size) {
+            samples.add(sample);
+            encodedSamples.add(encoded);
+            bytes += size + 1;
+        }
+
+        boolean isEmpty() {
+            return samples.isEmpty();
+        }
+
+        int size() {
+            return samples.size();
+        }
+
+        int bytes() {
+            return bytes;
+        }
+
+        byte[] toJsonArray() throws JsonProcessingException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes);
+            out.write('[');
+            for (int i = 0; i < samples.size(); i++) {
+                byte[] encoded = encodedSamples.get(i);
+                if (encoded == null)
+                    encoded = JsonSerialization.getSampleWriter().writeValueAsBytes(samples.get(i));
+
+                if (i > 0)
+                    out.write(',');
+                out.write(encoded, 0, encoded.length);
+            }
+            out.write(']');
+            return out.toByteArray();
+        }
+
+    }
 
     private WifiService wifiService;
     private MessagingService messagingService;
 
-    private SQLiteSampleRepository sampleRepository;
+    private BoundedSampleRepository sampleRepository;
+
+    private int maxBatchSamples;
+    private int maxBatchBytes;
+    private int localSamplesPageSize;
+
+    private Map<String, String> wireFormats;
 
     public SampleServiceImpl(Context context) {
+        this(context, new MessagingServiceImpl(context));
+    }
+
+    public SampleServiceImpl(Context context, MessagingService messagingService) {
         super(context);
         this.wifiService = new WifiServiceImpl(context);
-        this.messagingService = new MessagingServiceImpl(context);
-        this.sampleRepository = new SQLiteSampleRepository(context);
+        this.messagingService = messagingService;
+        this.sampleRepository = new BoundedSampleRepository(context, createLocalRepository(context));
+        this.maxBatchSamples = context.getResources().getInteger(R.integer.publishBatchMaxSamples);
+        this.maxBatchBytes = context.getResources().getInteger(R.integer.publishBatchMaxBytes);
+        this.localSamplesPageSize = context.getResources().getInteger(R.integer.localSamplesPageSize);
+        this.wireFormats = new ConcurrentHashMap<>();
+        setWireFormat("samples/+/save", context.getResources().getString(R.string.sampleWireFormatSave));
+        setWireFormat("samples/+/saveBatch", context.getResources().getString(R.string.sampleWireFormatSaveBatch));
+    }
+
+    private static SampleRepository createLocalRepository(Context context) {
+        String backend = context.getResources().getString(R.string.localSamplesBackend);
+        switch (backend) {
+            case "log":
+                return new LogSampleRepository(context);
+            case "sqlite":
+                return new SQLiteSampleRepository(context);
+            default:
+                throw new IllegalArgumentException("Unknown local samples backend: " + backend);
+        }
     }
 
     @Override
@@ -48,11 +139,25 @@ public class SampleServiceImpl extends AbstractService implements SampleService
         return sample;
     }
 
+    @Override
+    public List<Sample> saveAll(List<Sample> samples) {
+
+        Log.d("SampleService", "Saving " + samples.size() + " samples ...");
+        sampleRepository.saveAll(samples);
+
+        return samples;
+    }
+
     @Override
     public void remove(Sample sample) {
         sampleRepository.remove(sample);
     }
 
+    @Override
+    public void removeAll(Collection<Sample> samples) {
+        sampleRepository.removeAll(samples);
+    }
+
     @Override
     public long countLocalSamples() {
         return sampleRepository.count();
@@ -63,17 +168,82 @@ public class SampleServiceImpl extends AbstractService implements SampleService
         return sampleRepository.findAll();
     }
 
+    @Override
+    public BoundedSampleRepository.Counters getEvictionCounters() {
+        return sampleRepository.getCounters();
+    }
+
+    @Override
+    public Observable<Sample> streamLocalSamples() {
+        return Observable.from(sampleRepository.streamOldest(localSamplesPageSize));
+    }
+
+    @Override
+    public void setWireFormat(String topicFilter, String format) {
+        if (!SampleWireCodec.FORMAT_JSON.equals(format) && !SampleWireCodec.FORMAT_BINARY.equals(format))
+            throw new IllegalArgumentException("Unknown wire format: " + format);
+        wireFormats.put(topicFilter, format);
+    }
+
+    /**
+     * Get the format of the samples sent to the given topic. When several topic filters
+     * match the topic, the longest (most specific) one wins.
+     */
+    private String getWireFormat(String topic) {
+        String format = SampleWireCodec.FORMAT_JSON;
+        int bestLength = -1;
+
+        for (Map.Entry<String, String> entry : wireFormats.entrySet()) {
+            String topicFilter = entry.getKey();
+            if (topicFilter.length() > bestLength && MqttConnectionManager.topicMatches(topicFilter, topic)) {
+                format = entry.getValue();
+                bestLength = topicFilter.length();
+            }
+        }
+
+        return format;
+    }
+
+    /**
+     * Encode a sample in the given format, as a single JSON object or a binary message of
+     * one sample. The binary format falls back to JSON when the sample can't be represented
+     * in it, e.g. a malformed BSSID.
+     */
+    static byte[] encode(Sample sample, String format) throws JsonProcessingException {
+        if (SampleWireCodec.FORMAT_BINARY.equals(format)) {
+            try {
+                return SampleWireCodec.encode(Collections.singletonList(sample));
+            } catch (IllegalArgumentException e) {
+                Log.w("SampleService", "The sample can't be sent in binary, sending it as JSON: " + e.getMessage());
+            }
+        }
+        return JsonSerialization.getSampleWriter().writeValueAsBytes(sample);
+    }
+
+    /**
+     * Encode a batch in the given format, as a JSON array or a binary message. The binary
+     * format falls back to JSON when a sample can't be represented in it.
+     */
+    static byte[] encode(SampleBatch batch, String format) throws JsonProcessingException {
+        if (SampleWireCodec.FORMAT_BINARY.equals(format)) {
+            try {
+                return SampleWireCodec.encode(batch.samples);
+            } catch (IllegalArgumentException e) {
+                Log.w("SampleService", "The samples can't be sent in binary, sending them as JSON: " + e.getMessage());
+            }
+        }
+        return batch.toJsonArray();
+    }
+
     @Override
     public Observable<String> publish(Sample sample) {
         return Observable.create(subscriber -> {
             try {
-                ObjectMapper objectMapper = new ObjectMapper();
-
                 String topic = String.format(MESSAGING_PUBLISH_SAMPLE_REQUEST_TOPIC, sample.getId());
-                String msg = objectMapper.writeValueAsString(sample);
+                byte[] payload = encode(sample, getWireFormat(topic));
 
                 Log.d("SampleService", "Trying to publish the sample.");
-                messagingService.request(topic, msg)
+                messagingService.request(topic, payload)
                         .subscribeOn(Schedulers.newThread())
                         .subscribe(
                                 response -> {
@@ -89,4 +259,112 @@ public class SampleServiceImpl extends AbstractService implements SampleService
         });
     }
 
+    @Override
+    public Observable<Void> publishStillHere(String sampleId, int count) {
+        return Observable.defer(() -> {
+            try {
+                Log.d("SampleService", "Still at the sample " + sampleId + " after " + count + " samples.");
+                return messagingService.publish(
+                        String.format(MESSAGING_PUBLISH_STILL_HERE_TOPIC, sampleId),
+                        encodeStillHere(sampleId, count, System.currentTimeMillis())
+                );
+
+            } catch (JsonProcessingException e) {
+                return Observable.error(e);
+            }
+        });
+    }
+
+    /**
+     * Encode a "still here" heartbeat, the message sent instead of the suppressed samples.
+     */
+    static byte[] encodeStillHere(String sampleId, int count, long date) throws JsonProcessingException {
+        ObjectNode heartbeat = JsonSerialization.getObjectMapper().createObjectNode();
+        heartbeat.put("sampleId", sampleId);
+        heartbeat.put("count", count);
+        heartbeat.put("date", date);
+        return JsonSerialization.getObjectMapper().writeValueAsBytes(heartbeat);
+    }
+
+    @Override
+    public void setBatchLimits(int maxSamples, int maxBytes) {
+        this.maxBatchSamples = maxSamples;
+        this.maxBatchBytes = maxBytes;
+    }
+
+    @Override
+    public Observable<List<Sample>> publishBatch(List<Sample> samples) {
+        return Observable.defer(() -> {
+            try {
+                String format = getWireFormat(String.format(MESSAGING_PUBLISH_BATCH_REQUEST_TOPIC, "+"));
+                List<SampleBatch> batches = packBatches(samples, format);
+
+                Log.d("SampleService", "Trying to publish " + samples.size() + " samples in " + batches.size() + " " + format + " batches.");
+                return Observable.from(batches)
+                        .concatMap(batch -> publishBatch(batch, format));
+
+            } catch (JsonProcessingException e) {
+                return Observable.error(e);
+            }
+        });
+    }
+
+    private List<SampleBatch> packBatches(List<Sample> samples, String format) throws JsonProcessingException {
+        List<SampleBatch> batches = new ArrayList<>();
+        SampleBatch batch = new SampleBatch();
+
+        boolean binary = SampleWireCodec.FORMAT_BINARY.equals(format);
+        for (Sample sample : samples) {
+            byte[] encoded = binary ? null : JsonSerialization.getSampleWriter().writeValueAsBytes(sample);
+            int size = binary ? SampleWireCodec.estimateSize(sample) : encoded.length;
+
+            boolean full = batch.size() >= maxBatchSamples || batch.bytes() + size + 1 > maxBatchBytes;
+            if (!batch.isEmpty() && full) {
+                batches.add(batch);
+                batch = new SampleBatch();
+            }
+
+            batch.add(sample, encoded, size);
+        }
+
+        if (!batch.isEmpty())
+            batches.add(batch);
+
+        return batches;
+    }
+
+    /**
+     * Publish a batch. The backend answers with the JSON array of the ids of the samples
+     * it has accepted, and those are the samples emitted.
+     */
+    private Observable<List<Sample>> publishBatch(SampleBatch batch, String format) {
+        String topic = String.format(MESSAGING_PUBLISH_BATCH_REQUEST_TOPIC, UUID.randomUUID().toString());
+
+        byte[] payload;
+        try {
+            payload = encode(batch, format);
+        } catch (JsonProcessingException e) {
+            return Observable.error(e);
+        }
+
+        return messagingService.request(topic, payload)
+                .flatMap(response -> {
+                    try {
+                        Set<String> acceptedIds = new HashSet<>(Arrays.asList(JsonSerialization.getIdListReader().<String[]>readValue(response)));
+
+                        List<Sample> accepted = new ArrayList<>(acceptedIds.size());
+                        for (Sample sample : batch.samples) {
+                            if (acceptedIds.contains(sample.getId()))
+                                accepted.add(sample);
+                        }
+
+                        Log.d("SampleService", accepted.size() + " of " + batch.size() + " samples have been accepted.");
+                        return Observable.just(accepted);
+
+                    } catch (IOException e) {
+                        return Observable.error(new Throwable(response));
+                    }
+                });
+    }
+
 }
@@ -0,0 +1,160 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import es.uji.al259348.sliwandroid.core.model.Fingerprint;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+/**
+ * Compact binary encoding of the samples sent to the backend.
+ *
+ * A message starts with a magic byte, which can never start a JSON document, and the
+ * version of the format, so the backend can tell both formats apart on the same topic:
+ *
+ * <pre>
+ * magic (0xFE) | version | sample count | SSID dictionary | samples
+ * sample      = id | userId | deviceId | location | date (epoch millis) | valid | scan results
+ * scan result = SSID index | BSSID (6 bytes) | RSSI (signed byte)
+ * </pre>
+ *
+ * Counts and SSID indexes are unsigned varints and the SSID index 0 stands for no SSID.
+ * The ids are sent as 16 bytes when they are UUIDs and as strings otherwise.
+ */
+public class SampleWireCodec {
+
+    public static final String FORMAT_JSON = "json";
+    public static final String FORMAT_BINARY = "binary";
+
+    static final int MAGIC = 0xFE;
+    static final int VERSION = 1;
+
+    private static final int ID_NULL = 0;
+    private static final int ID_UUID = 1;
+    private static final int ID_STRING = 2;
+
+    private SampleWireCodec() {
+
+    }
+
+    /**
+     * Encode the samples in a single message.
+     *
+     * @throws IllegalArgumentException If a BSSID isn't a MAC address.
+     */
+    public static byte[] encode(List<Sample> samples) {
+        try {
+            Map<String, Integer> ssids = new LinkedHashMap<>();
+            for (Sample sample : samples) {
+                for (Sample.WifiScanResult scanResult : sample.getScanResults()) {
+                    if (scanResult.SSID != null && !ssids.containsKey(scanResult.SSID))
+                        ssids.put(scanResult.SSID, ssids.size() + 1);
+                }
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(estimateSize(samples));
+            DataOutputStream out = new DataOutputStream(bytes);
+
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            writeVarInt(out, samples.size());
+
+            writeVarInt(out, ssids.size());
+            for (String ssid : ssids.keySet())
+                out.writeUTF(ssid);
+
+            for (Sample sample : samples) {
+                writeId(out, sample.getId());
+                writeId(out, sample.getUserId());
+                writeId(out, sample.getDeviceId());
+                writeId(out, sample.getLocation());
+                out.writeLong(sample.getDate() == null ? -1 : sample.getDate().getTime());
+                out.writeBoolean(sample.isValid());
+
+                Collection<Sample.WifiScanResult> scanResults = sample.getScanResults();
+                writeVarInt(out, scanResults.size());
+                for (Sample.WifiScanResult scanResult : scanResults) {
+                    writeVarInt(out, scanResult.SSID == null ? 0 : ssids.get(scanResult.SSID));
+
+                    long bssid = Fingerprint.parseBssid(scanResult.BSSID);
+                    for (int shift = 40; shift >= 0; shift -= 8)
+                        out.writeByte((int) (bssid >>> shift));
+
+                    out.writeByte(Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, scanResult.level)));
+                }
+            }
+
+            out.flush();
+            return bytes.toByteArray();
+
+        } catch (IOException e) {
+            // Writing to memory doesn't fail.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Estimate the size of the samples once encoded. It is an upper bound, since the
+     * SSIDs are counted once per scan result and not once per message.
+     */
+    public static int estimateSize(List<Sample> samples) {
+        int size = 2 + 5 + 5;
+        for (Sample sample : samples)
+            size += estimateSize(sample);
+        return size;
+    }
+
+    public static int estimateSize(Sample sample) {
+        int size = 4 * 17 + 8 + 1 + 5;
+        for (Sample.WifiScanResult scanResult : sample.getScanResults()) {
+            size += 5 + 6 + 1;
+            if (scanResult.SSID != null)
+                size += 2 + 3 * scanResult.SSID.length();
+        }
+        return size;
+    }
+
+    private static void writeId(DataOutputStream out, String id) throws IOException {
+        if (id == null) {
+            out.writeByte(ID_NULL);
+            return;
+        }
+
+        UUID uuid = parseUuid(id);
+        if (uuid != null) {
+            out.writeByte(ID_UUID);
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        } else {
+            out.writeByte(ID_STRING);
+            out.writeUTF(id);
+        }
+    }
+
+    private static UUID parseUuid(String id) {
+        if (id.length() != 36)
+            return null;
+        try {
+            UUID uuid = UUID.fromString(id);
+            // Only if it comes back the same, e.g. not with upper case digits.
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+}
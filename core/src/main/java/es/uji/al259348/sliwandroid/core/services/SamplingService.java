@@ -0,0 +1,27 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+/**
+ * Periodic sampling of the location of the user, published or saved locally.
+ */
+public interface SamplingService extends Service {
+
+    /**
+     * Take the sample of the current sampling interval and adapt the interval to whether
+     * the location has changed. The scan is skipped when a sample
+     * has already been harvested from a scan requested by somebody else in the interval.
+     */
+    void takeScheduledSample();
+
+    /**
+     * Record the results of the last scan, requested by any app or the system, as a sample
+     * when they are fresh and no sample has been recorded in the sampling interval.
+     */
+    void harvestScanResults();
+
+    /**
+     * Get how many samples have been published and how many have been suppressed, with
+     * their size, because the location hadn't changed.
+     */
+    ChangeDetectionGate.Counters getChangeDetectionCounters();
+
+}
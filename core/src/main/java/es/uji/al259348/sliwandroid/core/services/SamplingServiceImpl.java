@@ -0,0 +1,206 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.UUID;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import rx.schedulers.Schedulers;
+
+public class SamplingServiceImpl extends AbstractService implements SamplingService {
+
+    private static final String SHARED_PREFERENCES_NAME = "SamplingServiceSharedPreferences";
+    private static final String SHARED_PREFERENCES_KEY_LAST_SAMPLE = "lastSample";
+    private static final String SHARED_PREFERENCES_KEY_LAST_PASSIVE_SAMPLE = "lastPassiveSample";
+    private static final String SHARED_PREFERENCES_KEY_LAST_SCHEDULED_SAMPLE = "lastScheduledSample";
+
+    /**
+     * Samples this close in time come from the same scan, e.g. one of ours that has been
+     * harvested too.
+     */
+    private static final long SAME_SCAN_TOLERANCE_MILLIS = 1000;
+
+    private static final Object LOCK = new Object();
+
+    private SampleService sampleService;
+    private DeviceService deviceService;
+    private UserService userService;
+    private WifiScanner wifiScanner;
+    private ChangeDetectionGate changeDetectionGate;
+    private AlarmService alarmService;
+    private MotionService motionService;
+
+    private SharedPreferences sharedPreferences;
+
+    public SamplingServiceImpl(Context context) {
+        super(context);
+        this.deviceService = new DeviceServiceImpl(context);
+        this.userService = new UserServiceImpl(context);
+        this.wifiScanner = WifiScanner.getInstance(context);
+        this.changeDetectionGate = new ChangeDetectionGate(context);
+        this.alarmService = new AlarmServiceImpl(context);
+        this.motionService = new MotionServiceImpl(context);
+        this.sharedPreferences = context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    @Override
+    public void onDestroy() {
+
+    }
+
+    /**
+     * The sample service opens the local repository, so it isn't created for the scans
+     * that aren't recorded.
+     */
+    private SampleService getSampleService() {
+        if (sampleService == null)
+            sampleService = new SampleServiceImpl(getContext());
+        return sampleService;
+    }
+
+    @Override
+    public void takeScheduledSample() {
+        long now = System.currentTimeMillis();
+        long lastScheduledSample;
+        long lastPassiveSample;
+        synchronized (LOCK) {
+            lastScheduledSample = sharedPreferences.getLong(SHARED_PREFERENCES_KEY_LAST_SCHEDULED_SAMPLE, 0);
+            lastPassiveSample = sharedPreferences.getLong(SHARED_PREFERENCES_KEY_LAST_PASSIVE_SAMPLE, 0);
+            sharedPreferences.edit()
+                    .putLong(SHARED_PREFERENCES_KEY_LAST_SCHEDULED_SAMPLE, now)
+                    .apply();
+        }
+
+        if (lastPassiveSample > lastScheduledSample) {
+            Log.d("SamplingService", "A sample has been harvested in this interval, no scan is performed.");
+            return;
+        }
+
+        getSampleService().take()
+                .subscribe(this::record, Throwable::printStackTrace);
+    }
+
+    @Override
+    public void harvestScanResults() {
+        // The location of a still user is known, like the scheduled samples they aren't taken.
+        if (motionService.isStill())
+            return;
+
+        long now = System.currentTimeMillis();
+        // At most one sample per interval, the current one as backed off by the alarm.
+        long intervalMillis = 1000L * alarmService.getTakeSampleIntervalInSeconds();
+        long lastSample = sharedPreferences.getLong(SHARED_PREFERENCES_KEY_LAST_SAMPLE, 0);
+        if (now - lastSample < intervalMillis)
+            return;
+
+        // The results of our own scheduled scan are recorded by the scheduled sample.
+        long lastScheduledSample = sharedPreferences.getLong(SHARED_PREFERENCES_KEY_LAST_SCHEDULED_SAMPLE, 0);
+        if (now - lastScheduledSample < wifiScanner.getFreshnessMillis())
+            return;
+
+        Sample sample = wifiScanner.getLastSample(wifiScanner.getFreshnessMillis());
+        if (sample == null) {
+            Log.d("SamplingService", "The scan results aren't fresh, they aren't harvested.");
+            return;
+        }
+
+        Log.d("SamplingService", "Harvesting a sample from a scan requested by somebody else.");
+        if (markRecorded(sample, true))
+            publish(sample, true);
+    }
+
+    private void record(Sample sample) {
+        if (markRecorded(sample, false))
+            publish(sample, false);
+        else
+            Log.d("SamplingService", "The scan has already been recorded.");
+    }
+
+    /**
+     * Remember the sample as the last one recorded, unless it comes from the same scan.
+     *
+     * @return Returns false if the scan had already been recorded.
+     */
+    private boolean markRecorded(Sample sample, boolean passive) {
+        long date = sample.getDate().getTime();
+        synchronized (LOCK) {
+            long lastSample = sharedPreferences.getLong(SHARED_PREFERENCES_KEY_LAST_SAMPLE, 0);
+            if (Math.abs(date - lastSample) < SAME_SCAN_TOLERANCE_MILLIS)
+                return false;
+
+            SharedPreferences.Editor editor = sharedPreferences.edit();
+            editor.putLong(SHARED_PREFERENCES_KEY_LAST_SAMPLE, date);
+            if (passive)
+                editor.putLong(SHARED_PREFERENCES_KEY_LAST_PASSIVE_SAMPLE, date);
+            editor.apply();
+            return true;
+        }
+    }
+
+    private void publishStillHere() {
+        Sample reference = changeDetectionGate.getReference();
+        int count = changeDetectionGate.getSuppressedInARow();
+
+        // A lost heartbeat is superseded by the next one, it isn't saved.
+        getSampleService().publishStillHere(reference.getId(), count)
+                .subscribeOn(Schedulers.newThread())
+                .subscribe(
+                        aVoid -> {
+                        },
+                        throwable -> Log.d("SamplingService", "The heartbeat couldn't be published."),
+                        () -> Log.d("SamplingService", "The heartbeat has been published.")
+                );
+    }
+
+    @Override
+    public ChangeDetectionGate.Counters getChangeDetectionCounters() {
+        return changeDetectionGate.getCounters();
+    }
+
+    /**
+     * Publish a sample unless the location hasn't changed. Only the scheduled samples adapt
+     * the interval of the alarm, the harvested ones come at the pace of other apps.
+     */
+    private void publish(Sample sample, boolean passive) {
+        SampleService sampleService = getSampleService();
+
+        sample.setId(UUID.randomUUID().toString());
+        sample.setUserId(userService.getCurrentLinkedUserId());
+        sample.setDeviceId(deviceService.getId());
+
+        Log.d("SamplingService", "Sample: " + sample);
+
+        ChangeDetectionGate.Decision decision = changeDetectionGate.decide(sample);
+        if (!passive)
+            alarmService.onSampleTaken(decision.isStable());
+
+        switch (decision) {
+            case SUPPRESS:
+                Log.d("SamplingService", "The location hasn't changed, the sample isn't published.");
+                return;
+            case HEARTBEAT:
+                publishStillHere();
+                return;
+        }
+
+        sampleService.publish(sample)
+                .subscribeOn(Schedulers.newThread())
+                .observeOn(Schedulers.newThread())
+                .subscribe(
+                        response -> {
+                            Log.d("SamplingService", "The sample has been published (next)");
+                            changeDetectionGate.onPublished(sample);
+                        },
+                        throwable -> {
+                            Log.d("SamplingService", "The sample couldn't be published.");
+                            Log.d("SamplingService", "Storing the sample locally...");
+                            sampleService.save(sample);
+                            changeDetectionGate.onPublished(sample);
+                        },
+                        () -> Log.d("SamplingService", "The sample has been published (completed)")
+                );
+    }
+
+}
@@ -1,6 +1,7 @@
 package es.uji.al259348.sliwandroid.core.services;
 
 import es.uji.al259348.sliwandroid.core.model.Config;
+import es.uji.al259348.sliwandroid.core.model.Sample;
 import es.uji.al259348.sliwandroid.core.model.User;
 import rx.Observable;
 
@@ -29,6 +30,23 @@ public interface UserService extends Service {
     String getCurrentLinkedUserId();
 
     Observable<User> getUserLinkedTo(String deviceId);
+
+    /**
+     * Get the configuration of the user with the training samples taken so far, so an
+     * interrupted configuration goes on where it was left.
+     */
+    Config getPendingConfig(User user);
+
+    /**
+     * Persist a training sample as soon as it is taken.
+     */
+    void saveConfigSample(Sample sample);
+
+    /**
+     * Upload the configuration in chunks. Every chunk acknowledged by the backend is
+     * remembered, so a failed upload resumes from the first chunk not acknowledged.
+     * Once the whole configuration is uploaded the training samples are removed.
+     */
     Observable<Void> configureUser(User user, Config config);
 
 }
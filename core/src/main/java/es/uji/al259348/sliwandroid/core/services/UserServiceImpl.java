@@ -2,15 +2,23 @@ package es.uji.al259348.sliwandroid.core.services;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.util.Log;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 
+import es.uji.al259348.sliwandroid.core.R;
 import es.uji.al259348.sliwandroid.core.model.Config;
+import es.uji.al259348.sliwandroid.core.model.Sample;
 import es.uji.al259348.sliwandroid.core.model.User;
+import es.uji.al259348.sliwandroid.core.repositories.SampleRepository;
+import es.uji.al259348.sliwandroid.core.repositories.log.LogSampleRepository;
 import rx.Observable;
 import rx.schedulers.Schedulers;
 
@@ -19,26 +27,40 @@ public class UserServiceImpl extends AbstractService implements UserService {
     private static final String SHARED_PREFERENCES_NAME = "UserServiceSharedPreferences";
     private static final String SHARED_PREFERENCES_KEY_USER = "user";
 
-    private static final String MESSAGING_CONFIGURE_REQUEST_TOPIC = "users/%s/configure";
+    private static final String SHARED_PREFERENCES_KEY_CONFIG_UPLOAD_ID = "configUploadId";
+    private static final String SHARED_PREFERENCES_KEY_CONFIG_UPLOAD_ACKED_CHUNKS = "configUploadAckedChunks";
+
+    private static final String CONFIG_SAMPLES_LOG_NAME = "configSamplesLog";
+
+    private static final String MESSAGING_CONFIGURE_REQUEST_TOPIC = "users/%s/configureChunk";
     private static final String MESSAGING_REGISTER_RESPONSE_OK = "200 OK";
 
     private MessagingService messagingService;
 
-    private ObjectMapper objectMapper;
     private SharedPreferences sharedPreferences;
+    private SampleRepository configSampleRepository;
+    private int configChunkSize;
+
+    // Reused by every config upload, so a big upload doesn't allocate a new buffer each time.
+    // Each chunk is still copied out of it, see JsonSerialization.writeConfigChunk.
+    private ByteArrayOutputStream configBuffer;
 
     public UserServiceImpl(Context context) {
-        super(context);
-        this.messagingService = new MessagingServiceImpl(context);
-        this.objectMapper = new ObjectMapper();
-        this.sharedPreferences = getSharedPreferences();
+        this(context, new MessagingServiceImpl(context));
     }
 
     public UserServiceImpl(Context context, MessagingService messagingService) {
         super(context);
         this.messagingService = messagingService;
-        this.objectMapper = new ObjectMapper();
         this.sharedPreferences = getSharedPreferences();
+        this.configSampleRepository = new LogSampleRepository(context, CONFIG_SAMPLES_LOG_NAME);
+        this.configChunkSize = context.getResources().getInteger(R.integer.configUploadChunkSamples);
+        setConfigureRequestTimeout();
+    }
+
+    private void setConfigureRequestTimeout() {
+        long timeout = getContext().getResources().getInteger(R.integer.configureRequestTimeoutInMillis);
+        messagingService.setRequestTimeout(String.format(MESSAGING_CONFIGURE_REQUEST_TOPIC, "+"), timeout);
     }
 
     private SharedPreferences getSharedPreferences() {
@@ -57,17 +79,25 @@ public class UserServiceImpl extends AbstractService implements UserService {
         if (sharedPreferences.contains(SHARED_PREFERENCES_KEY_USER)) {
             String value = sharedPreferences.getString(SHARED_PREFERENCES_KEY_USER, "");
             if (!value.isEmpty()) {
-                try {
-                    res = objectMapper.readValue(value, User.class);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                res = parseUser(value);
             }
         }
 
         return res;
     }
 
+    /**
+     * Parse a new user on every call, with the shared reader, as the callers may change it.
+     */
+    private static User parseUser(String value) {
+        try {
+            return JsonSerialization.getUserReader().readValue(value);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     @Override
     public boolean setCurrentLinkedUser(User user) {
 
@@ -75,7 +105,7 @@ public class UserServiceImpl extends AbstractService implements UserService {
 
         if (user != null) {
             try {
-                value = objectMapper.writeValueAsString(user);
+                value = JsonSerialization.getUserWriter().writeValueAsString(user);
             } catch (JsonProcessingException e) {
                 e.printStackTrace();
                 return false;
@@ -104,7 +134,7 @@ public class UserServiceImpl extends AbstractService implements UserService {
                     .observeOn(Schedulers.newThread())
                     .subscribe(s -> {
                         try {
-                            User user = objectMapper.readValue(s, User.class);
+                            User user = JsonSerialization.getUserReader().readValue(s);
                             subscriber.onNext(user);
                         } catch (IOException e) {
                             subscriber.onError(new Throwable(s));
@@ -113,30 +143,137 @@ public class UserServiceImpl extends AbstractService implements UserService {
         });
     }
 
+    @Override
+    public Config getPendingConfig(User user) {
+        Config config = new Config(user);
+
+        List<Sample> stale = new ArrayList<>();
+        for (Sample sample : configSampleRepository.findAll()) {
+            Config.ConfigStep step = findStep(config, sample);
+            if (!user.getId().equals(sample.getUserId()) || step == null || step.isCompleted())
+                stale.add(sample);
+            else
+                step.addSample(sample);
+        }
+
+        if (!stale.isEmpty()) {
+            Log.d("UserService", "Removing " + stale.size() + " training samples of another configuration.");
+            configSampleRepository.removeAll(stale);
+        }
+
+        return config;
+    }
+
+    private static Config.ConfigStep findStep(Config config, Sample sample) {
+        for (Config.ConfigStep step : config.getSteps()) {
+            if (step.getLocation().getName().equals(sample.getLocation()))
+                return step;
+        }
+        return null;
+    }
+
+    @Override
+    public void saveConfigSample(Sample sample) {
+        configSampleRepository.save(sample);
+    }
+
     @Override
     public Observable<Void> configureUser(User user, Config config) {
-        return Observable.create(subscriber -> {
+        return Observable.defer(() -> {
+            List<List<Sample>> chunks = splitInChunks(config, configChunkSize);
+            String uploadId = getUploadId(user, chunks);
+            int ackedChunks = getAckedChunks(uploadId);
 
-            try {
-                String msg = objectMapper.writeValueAsString(config.getSamples());
-
-                String topic = String.format(MESSAGING_CONFIGURE_REQUEST_TOPIC, user.getId());
-                messagingService.request(topic, msg)
-                        .subscribeOn(Schedulers.newThread())
-                        .observeOn(Schedulers.newThread())
-                        .subscribe(response -> {
-                            if (response.equals(MESSAGING_REGISTER_RESPONSE_OK)) {
-                                subscriber.onCompleted();
-                            } else {
-                                subscriber.onError(new Throwable(response));
-                            }
-                        }, subscriber::onError);
+            Log.d("UserService", "Uploading the configuration in " + chunks.size() + " chunks, " + ackedChunks + " of them already acknowledged.");
+            return Observable.range(ackedChunks, chunks.size() - ackedChunks)
+                    .concatMap(index -> uploadChunk(user, uploadId, index, chunks))
+                    .doOnCompleted(() -> onConfigUploaded(config));
+        });
+    }
 
-            } catch (JsonProcessingException e) {
-                e.printStackTrace();
+    /**
+     * Split the samples of the configuration in chunks, in the order they were taken.
+     * There is always a chunk, even if it is empty, so the backend knows the upload is over.
+     */
+    static List<List<Sample>> splitInChunks(Config config, int chunkSize) {
+        List<List<Sample>> chunks = new ArrayList<>();
+        List<Sample> chunk = new ArrayList<>(chunkSize);
+
+        for (Config.ConfigStep step : config.getSteps()) {
+            for (Sample sample : step.getSamples()) {
+                if (chunk.size() >= chunkSize) {
+                    chunks.add(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+                chunk.add(sample);
             }
+        }
+        chunks.add(chunk);
 
-        });
+        return chunks;
+    }
+
+    /**
+     * Get an id that only depends on the samples and how they are split, so the same
+     * configuration always gets the same id and its upload can be resumed.
+     */
+    private static String getUploadId(User user, List<List<Sample>> chunks) {
+        StringBuilder sb = new StringBuilder(user.getId());
+        for (List<Sample> chunk : chunks) {
+            sb.append('|');
+            for (Sample sample : chunk)
+                sb.append(sample.getId()).append(',');
+        }
+        return UUID.nameUUIDFromBytes(sb.toString().getBytes()).toString();
+    }
+
+    private int getAckedChunks(String uploadId) {
+        if (!uploadId.equals(sharedPreferences.getString(SHARED_PREFERENCES_KEY_CONFIG_UPLOAD_ID, "")))
+            return 0;
+        return sharedPreferences.getInt(SHARED_PREFERENCES_KEY_CONFIG_UPLOAD_ACKED_CHUNKS, 0);
+    }
+
+    private void setAckedChunks(String uploadId, int ackedChunks) {
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.putString(SHARED_PREFERENCES_KEY_CONFIG_UPLOAD_ID, uploadId);
+        editor.putInt(SHARED_PREFERENCES_KEY_CONFIG_UPLOAD_ACKED_CHUNKS, ackedChunks);
+        editor.commit();
+    }
+
+    private Observable<Void> uploadChunk(User user, String uploadId, int index, List<List<Sample>> chunks) {
+        byte[] msg;
+        try {
+            synchronized (this) {
+                if (configBuffer == null)
+                    configBuffer = new ByteArrayOutputStream();
+                msg = JsonSerialization.writeConfigChunk(uploadId, index, chunks.size(), chunks.get(index), configBuffer);
+            }
+        } catch (IOException e) {
+            return Observable.error(e);
+        }
+
+        String topic = String.format(MESSAGING_CONFIGURE_REQUEST_TOPIC, user.getId());
+        // The acknowledgement and the cleanup after the last chunk write to the storage,
+        // so they are moved off the thread of the MQTT callback.
+        return messagingService.request(topic, msg)
+                .observeOn(Schedulers.io())
+                .flatMap(response -> {
+                    if (!response.equals(MESSAGING_REGISTER_RESPONSE_OK))
+                        return Observable.error(new Throwable(response));
+
+                    Log.d("UserService", "The chunk " + (index + 1) + " of " + chunks.size() + " has been acknowledged.");
+                    setAckedChunks(uploadId, index + 1);
+                    return Observable.<Void>empty();
+                });
+    }
+
+    private void onConfigUploaded(Config config) {
+        configSampleRepository.removeAll(config.getSamples());
+
+        SharedPreferences.Editor editor = sharedPreferences.edit();
+        editor.remove(SHARED_PREFERENCES_KEY_CONFIG_UPLOAD_ID);
+        editor.remove(SHARED_PREFERENCES_KEY_CONFIG_UPLOAD_ACKED_CHUNKS);
+        editor.apply();
     }
 
 }
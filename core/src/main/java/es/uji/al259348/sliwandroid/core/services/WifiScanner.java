@@ -0,0 +1,317 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import rx.Observable;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.subjects.PublishSubject;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Process-wide Wi-Fi scanner shared by every {@link WifiServiceImpl}.
+ *
+ * Every request waiting when the results of a scan arrive gets a sample of that scan, so
+ * concurrent requests share a single scan. A request is answered with the last results
+ * without scanning when they are recent enough.
+ *
+ * A single receiver is registered while there are requests waiting or open scan streams,
+ * and every scan result broadcast is dispatched to all of them.
+ */
+public class WifiScanner {
+
+    /**
+     * Time after which a scan stream requests another scan if the results of the last one
+     * haven't arrived.
+     */
+    private static final long SCAN_RETRY_MILLIS = 10000;
+
+    /**
+     * Time after which a scan whose results haven't arrived is given up, so the requests
+     * waiting for it fail and a new scan can be requested. It is shorter than the retry
+     * of the streams, so they find it given up.
+     */
+    private static final long SCAN_TIMEOUT_MILLIS = 8000;
+
+    private class WifiScanReceiver extends BroadcastReceiver {
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+
+            Log.d("WifiScanReceiver", "Scan results available.");
+            onScanPerformed();
+
+        }
+
+    }
+
+    private static WifiScanner instance;
+
+    public synchronized static WifiScanner getInstance(Context context) {
+
+        if (context == null)
+            throw new IllegalArgumentException();
+
+        if (instance == null)
+            instance = new WifiScanner(context.getApplicationContext());
+
+        return instance;
+    }
+
+    private Context context;
+    private WifiManager wifiManager;
+
+    private long freshnessMillis;
+
+    private WifiScanReceiver wifiScanReceiver;
+    private List<Subscriber<? super Sample>> wifiScanSubscribers;
+    private boolean scanPending;
+    private Subscription scanTimeout;
+
+    private PublishSubject<List<ScanResult>> scanResults;
+    private int scanStreams;
+
+    private WifiScanner(Context context) {
+        this.context = context;
+        this.wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        this.freshnessMillis = context.getResources().getInteger(R.integer.wifiScanFreshnessInMillis);
+        this.wifiScanSubscribers = new ArrayList<>();
+        this.scanResults = PublishSubject.create();
+    }
+
+    public long getFreshnessMillis() {
+        return freshnessMillis;
+    }
+
+    /**
+     * Take a sample, scanning only if the last results are older than the given age.
+     * The Wi-Fi must be enabled.
+     *
+     * @param maxAgeMillis The maximum age of the results, 0 to always scan.
+     */
+    public Observable<Sample> takeSample(long maxAgeMillis) {
+        return Observable.create(subscriber -> {
+
+            Sample lastSample = getLastSample(maxAgeMillis);
+            if (lastSample != null) {
+                Log.d("WifiScanner", "The last scan is recent enough, it is used without scanning.");
+                emit(subscriber, lastSample);
+                return;
+            }
+
+            synchronized (this) {
+                wifiScanSubscribers.add(subscriber);
+                updateReceiver();
+                if (scanPending) {
+                    Log.d("WifiScanner", "A scan is in process, this request will share its results.");
+                    return;
+                }
+                if (!performScan())
+                    onScanFailed(new IllegalStateException("The Wifi scan couldn't be started."));
+            }
+
+        });
+    }
+
+    /**
+     * Get a sample of the last scan, whoever requested it, without scanning.
+     *
+     * @param maxAgeMillis The maximum age of the results.
+     * @return Returns the sample or null if the last results are older or there aren't.
+     */
+    public Sample getLastSample(long maxAgeMillis) {
+        if (maxAgeMillis <= 0)
+            return null;
+
+        List<ScanResult> results = wifiManager.getScanResults();
+        return (getAgeMillis(results) <= maxAgeMillis) ? createSample(results) : null;
+    }
+
+    /**
+     * Get a stream with a sample of every scan performed while it is subscribed, whoever
+     * requested it. A new scan is requested the given time after the results of the last one.
+     *
+     * When the subscriber can't keep up, the samples it hasn't requested yet are dropped
+     * but the latest one. The Wi-Fi must be enabled.
+     *
+     * @param minIntervalMillis The minimum time between the scans requested by the stream.
+     */
+    public Observable<Sample> scanStream(long minIntervalMillis) {
+        return Observable.<Sample>create(subscriber -> {
+
+            synchronized (this) {
+                scanStreams++;
+                updateReceiver();
+            }
+            Log.d("WifiScanner", "Scan stream opened, every " + minIntervalMillis + " ms at least.");
+
+            subscriber.add(scanResults
+                    .map(WifiScanner::createSample)
+                    .subscribe(subscriber::onNext));
+
+            // The timer is restarted by every scan, and it retries if the results are lost.
+            subscriber.add(scanResults
+                    .map(results -> minIntervalMillis)
+                    .startWith(0L)
+                    .switchMap(delay -> Observable.interval(delay, Math.max(minIntervalMillis, SCAN_RETRY_MILLIS), TimeUnit.MILLISECONDS))
+                    .subscribe(tick -> requestScan()));
+
+            subscriber.add(Subscriptions.create(() -> {
+                synchronized (this) {
+                    scanStreams--;
+                    updateReceiver();
+                }
+                Log.d("WifiScanner", "Scan stream closed.");
+            }));
+
+        }).onBackpressureLatest();
+    }
+
+    /**
+     * Register the receiver while anybody is waiting for scan results, and only then.
+     */
+    private void updateReceiver() {
+        boolean needed = scanStreams > 0 || !wifiScanSubscribers.isEmpty();
+
+        if (needed && wifiScanReceiver == null) {
+            wifiScanReceiver = new WifiScanReceiver();
+            context.registerReceiver(
+                    wifiScanReceiver,
+                    new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION)
+            );
+            Log.d("WifiScanner", wifiScanReceiver.getClass().getSimpleName() + " registered.");
+        } else if (!needed && wifiScanReceiver != null) {
+            context.unregisterReceiver(wifiScanReceiver);
+            Log.d("WifiScanner", wifiScanReceiver.getClass().getSimpleName() + " unregistered.");
+            wifiScanReceiver = null;
+        }
+    }
+
+    /**
+     * Request a scan for the streams. A scan that can't be started is retried by the
+     * stream, the requests waiting for a sample aren't failed.
+     */
+    private synchronized void requestScan() {
+        if (wifiScanReceiver != null && !scanPending)
+            performScan();
+    }
+
+    /**
+     * @return Returns false if the scan couldn't be started.
+     */
+    private boolean performScan() {
+        Log.d("WifiScanner", "It has been requested to perform a Wifi scan.");
+
+        if (!wifiManager.startScan()) {
+            Log.d("WifiScanner", "The Wifi scan couldn't be started.");
+            return false;
+        }
+
+        Log.d("WifiScanner", "Performing a Wifi scan...");
+        scanPending = true;
+        scanTimeout = Observable.timer(SCAN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .subscribe(tick -> onScanTimeout());
+        return true;
+    }
+
+    private void clearScanPending() {
+        scanPending = false;
+        if (scanTimeout != null) {
+            scanTimeout.unsubscribe();
+            scanTimeout = null;
+        }
+    }
+
+    private synchronized void onScanTimeout() {
+        if (!scanPending)
+            return;
+
+        Log.d("WifiScanner", "The results of the Wifi scan haven't arrived in " + SCAN_TIMEOUT_MILLIS + " ms.");
+        clearScanPending();
+        onScanFailed(new TimeoutException("The results of the Wifi scan haven't arrived."));
+    }
+
+    private void onScanPerformed() {
+        List<Subscriber<? super Sample>> subscribers;
+        synchronized (this) {
+            clearScanPending();
+
+            subscribers = new ArrayList<>(wifiScanSubscribers);
+            wifiScanSubscribers.clear();
+            updateReceiver();
+        }
+
+        List<ScanResult> results = wifiManager.getScanResults();
+        Log.d("WifiScanner", "The scan has been performed, " + subscribers.size() + " requests share it.");
+
+        // Each request gets its own sample, since the samples are modified afterwards.
+        for (Subscriber<? super Sample> subscriber : subscribers)
+            emit(subscriber, createSample(results));
+
+        // The broadcasts come in the main thread, one after another.
+        scanResults.onNext(results);
+    }
+
+    private void onScanFailed(Throwable throwable) {
+        List<Subscriber<? super Sample>> subscribers = new ArrayList<>(wifiScanSubscribers);
+        wifiScanSubscribers.clear();
+        updateReceiver();
+
+        for (Subscriber<? super Sample> subscriber : subscribers) {
+            if (!subscriber.isUnsubscribed())
+                subscriber.onError(throwable);
+        }
+    }
+
+    private static void emit(Subscriber<? super Sample> subscriber, Sample sample) {
+        if (!subscriber.isUnsubscribed()) {
+            subscriber.onNext(sample);
+            subscriber.onCompleted();
+        }
+    }
+
+    /**
+     * Create a sample dated when the scan was performed.
+     */
+    static Sample createSample(List<ScanResult> scanResults) {
+        Sample sample = new Sample(scanResults);
+
+        long age = getAgeMillis(scanResults);
+        if (age != Long.MAX_VALUE)
+            sample.setDate(new Date(System.currentTimeMillis() - age));
+
+        return sample;
+    }
+
+    /**
+     * Get how long ago the newest of the results was seen.
+     *
+     * @return Returns the age in milliseconds or Long.MAX_VALUE if there aren't results.
+     */
+    static long getAgeMillis(List<ScanResult> scanResults) {
+        if (scanResults == null || scanResults.isEmpty())
+            return Long.MAX_VALUE;
+
+        long newestMicros = 0;
+        for (ScanResult scanResult : scanResults)
+            newestMicros = Math.max(newestMicros, scanResult.timestamp);
+
+        return Math.max(0, SystemClock.elapsedRealtime() - newestMicros / 1000);
+    }
+
+}
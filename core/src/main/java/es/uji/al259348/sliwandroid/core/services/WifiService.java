@@ -8,6 +8,24 @@ public interface WifiService extends Service {
     String getMacAddress();
 
     Observable<Void> enableWifi();
+
+    /**
+     * Take a sample. The results of the last scan are reused if they are recent enough,
+     * and concurrent requests share the same scan.
+     */
     Observable<Sample> takeSample();
 
+    /**
+     * Take a sample from a scan performed at most the given milliseconds ago.
+     *
+     * @param maxAgeMillis The maximum age of the results, 0 to always scan.
+     */
+    Observable<Sample> takeSample(long maxAgeMillis);
+
+    /**
+     * Get a sample of every scan performed while subscribed, scanning every given
+     * milliseconds at least. A slow subscriber gets the latest sample.
+     */
+    Observable<Sample> scanStream(long minIntervalMillis);
+
 }
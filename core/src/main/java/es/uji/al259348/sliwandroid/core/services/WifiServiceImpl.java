@@ -32,22 +32,8 @@ public class WifiServiceImpl extends AbstractService implements WifiService {
 
     }
 
-    private class WifiScanReceiver extends BroadcastReceiver {
-
-        @Override
-        public void onReceive(Context context, Intent intent) {
-
-            Log.d("WifiScanReceiver", "Scan results available.");
-            onScanPerformed();
-
-        }
-
-    }
-
     private WifiManager wifiManager;
-
-    private WifiScanReceiver wifiScanReceiver;
-    private Queue<Subscriber<? super Sample>> wifiScanSubscribers;
+    private WifiScanner wifiScanner;
 
     private WifiStateChangedReceiver wifiStateChangedReceiver;
     private Queue<Subscriber> wifiStateChangedSubscribers;
@@ -55,14 +41,13 @@ public class WifiServiceImpl extends AbstractService implements WifiService {
     public WifiServiceImpl(Context context) {
         super(context);
         this.wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        this.wifiScanner = WifiScanner.getInstance(context);
 
-        this.wifiScanSubscribers = new LinkedList<>();
         this.wifiStateChangedSubscribers = new LinkedList<>();
     }
 
     @Override
     public void onDestroy() {
-        unregisterReceiver(wifiScanReceiver);
         unregisterReceiver(wifiStateChangedReceiver);
     }
 
@@ -122,52 +107,33 @@ public class WifiServiceImpl extends AbstractService implements WifiService {
 
     @Override
     public Observable<Sample> takeSample() {
-        return Observable.create(subscriber -> {
-
-            Log.d("WifiService", "It has been requested to take a sample.");
-            wifiScanSubscribers.add(subscriber);
-            if (wifiScanReceiver != null) {
-                Log.d("WifiService", "Another request to take a sample is in process, queueing this request.");
-            } else {
-                enableWifi()
-                        .doOnCompleted(this::performScan)
-                        .subscribe();
-            }
-
-        });
+        return takeSample(wifiScanner.getFreshnessMillis());
     }
 
-    private void performScan() {
-        Log.d("WifiService", "It has been requested to perform a Wifi scan.");
+    @Override
+    public Observable<Sample> takeSample(long maxAgeMillis) {
+        return Observable.defer(() -> {
 
-        wifiScanReceiver = new WifiScanReceiver();
-        getContext().registerReceiver(
-                wifiScanReceiver,
-                new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION)
-        );
-        Log.d("WifiService", wifiScanReceiver.getClass().getSimpleName() + " registered.");
+            Log.d("WifiService", "It has been requested to take a sample.");
+            return Observable.concat(
+                    enableWifi().cast(Sample.class),
+                    wifiScanner.takeSample(maxAgeMillis)
+            );
 
-        wifiManager.startScan();
-        Log.d("WifiService", "Performing a Wifi scan...");
+        });
     }
 
-    private void onScanPerformed() {
-        Log.d("WifiService", "The scan has been performed.");
-        unregisterReceiver(wifiScanReceiver);
-        wifiScanReceiver = null;
-
-        Sample sample = new Sample(wifiManager.getScanResults());
+    @Override
+    public Observable<Sample> scanStream(long minIntervalMillis) {
+        return Observable.defer(() -> {
 
-        Subscriber<? super Sample> subscriber = wifiScanSubscribers.poll();
-        if (subscriber != null) {
-            Log.d("WifiService", "The sample has been taken.");
-            subscriber.onNext(sample);
-        }
+            Log.d("WifiService", "It has been requested to stream the scans.");
+            return Observable.concat(
+                    enableWifi().cast(Sample.class),
+                    wifiScanner.scanStream(minIntervalMillis)
+            );
 
-        if (!wifiScanSubscribers.isEmpty()) {
-            Log.d("WifiService", "The are requests to take a sample in the queue.");
-            performScan();
-        }
+        });
     }
 
 }
@@ -0,0 +1,56 @@
+package es.uji.al259348.sliwandroid.core.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Synthetic samples for the tests and the benchmarks, shared by the unit and the
+ * instrumented tests.
+ */
+public class TestSamples {
+
+    public static final int SCAN_RESULTS = 20;
+
+    private static final long FIRST_DATE = 1450000000000L;
+    private static final long INTERVAL_MILLIS = 60000L;
+
+    private TestSamples() {
+
+    }
+
+    /**
+     * Create a sample with a random id and {@link #SCAN_RESULTS} scan results, of the
+     * same access points in every sample.
+     */
+    public static Sample sample(Date date) {
+        Sample sample = new Sample();
+        sample.setId(UUID.randomUUID().toString());
+        sample.setUserId("user");
+        sample.setDeviceId("device");
+        sample.setDate(date);
+
+        List<Sample.WifiScanResult> scanResults = new ArrayList<>(SCAN_RESULTS);
+        for (int i = 0; i < SCAN_RESULTS; i++) {
+            Sample.WifiScanResult scanResult = new Sample.WifiScanResult();
+            scanResult.SSID = "network-" + i;
+            scanResult.BSSID = String.format("00:11:22:33:44:%02x", i);
+            scanResult.level = -40 - i;
+            scanResults.add(scanResult);
+        }
+        sample.setScanResults(scanResults);
+        return sample;
+    }
+
+    /**
+     * Create samples taken a minute apart, the oldest first.
+     */
+    public static List<Sample> samples(int count) {
+        List<Sample> samples = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            samples.add(sample(new Date(FIRST_DATE + i * INTERVAL_MILLIS)));
+        return samples;
+    }
+
+}
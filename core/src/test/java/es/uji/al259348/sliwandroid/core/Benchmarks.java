@@ -0,0 +1,21 @@
+package es.uji.al259348.sliwandroid.core;
+
+import org.junit.Assume;
+
+/**
+ * The benchmarks are skipped unless the system property "benchmark" is true, which the
+ * build sets with -Pbenchmark, e.g. ./gradlew :core:testDebugUnitTest -Pbenchmark
+ */
+public class Benchmarks {
+
+    public static final String PROPERTY = "benchmark";
+
+    private Benchmarks() {
+
+    }
+
+    public static void assumeEnabled() {
+        Assume.assumeTrue("Benchmarks are enabled with -P" + PROPERTY, Boolean.getBoolean(PROPERTY));
+    }
+
+}
@@ -0,0 +1,220 @@
+package es.uji.al259348.sliwandroid.core.repositories;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BoundedSampleRepositoryTest {
+
+    private static final long HOUR_MILLIS = 3600L * 1000;
+
+    /**
+     * The samples in the order they were saved, counting the samples read.
+     */
+    private static class InMemorySampleRepository implements SampleRepository {
+
+        private final List<Sample> samples = new ArrayList<>();
+        private int read;
+
+        @Override
+        public void onDestroy() {
+
+        }
+
+        @Override
+        public Sample save(Sample sample) {
+            samples.add(sample);
+            return sample;
+        }
+
+        @Override
+        public List<Sample> saveAll(List<Sample> samples) {
+            this.samples.addAll(samples);
+            return samples;
+        }
+
+        @Override
+        public void remove(Sample sample) {
+            samples.remove(sample);
+        }
+
+        @Override
+        public void removeAll(Collection<Sample> samples) {
+            this.samples.removeAll(samples);
+        }
+
+        @Override
+        public int removeOlderThan(Date date) {
+            int before = samples.size();
+            for (Iterator<Sample> iterator = samples.iterator(); iterator.hasNext(); ) {
+                Date sampleDate = iterator.next().getDate();
+                if (sampleDate != null && sampleDate.before(date))
+                    iterator.remove();
+            }
+            return before - samples.size();
+        }
+
+        @Override
+        public long count() {
+            return samples.size();
+        }
+
+        @Override
+        public Sample findById(String id) {
+            for (Sample sample : samples) {
+                if (sample.getId().equals(id))
+                    return sample;
+            }
+            return null;
+        }
+
+        @Override
+        public List<Sample> findAll() {
+            return new ArrayList<>(samples);
+        }
+
+        @Override
+        public Iterable<Sample> streamOldest(int pageSize) {
+            return () -> {
+                Iterator<Sample> iterator = new ArrayList<>(samples).iterator();
+                return new Iterator<Sample>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Sample next() {
+                        read++;
+                        return iterator.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            };
+        }
+
+    }
+
+    private InMemorySampleRepository repository;
+    private BoundedSampleRepository boundedRepository;
+    private int saved;
+
+    @Before
+    public void setUp() {
+        Map<String, Object> preferences = new HashMap<>();
+        SharedPreferences sharedPreferences = mock(SharedPreferences.class);
+        SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
+        when(sharedPreferences.edit()).thenReturn(editor);
+        when(sharedPreferences.getInt(anyString(), anyInt())).thenAnswer(invocation ->
+                preferences.containsKey(invocation.getArguments()[0]) ? preferences.get(invocation.getArguments()[0]) : invocation.getArguments()[1]);
+        when(sharedPreferences.getLong(anyString(), anyLong())).thenAnswer(invocation ->
+                preferences.containsKey(invocation.getArguments()[0]) ? preferences.get(invocation.getArguments()[0]) : invocation.getArguments()[1]);
+        when(editor.putInt(anyString(), anyInt())).thenAnswer(invocation -> {
+            preferences.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+            return editor;
+        });
+        when(editor.putLong(anyString(), anyLong())).thenAnswer(invocation -> {
+            preferences.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+            return editor;
+        });
+
+        Context context = mock(Context.class);
+        Resources resources = mock(Resources.class);
+        when(context.getResources()).thenReturn(resources);
+        when(context.getSharedPreferences(anyString(), anyInt())).thenReturn(sharedPreferences);
+        when(resources.getInteger(R.integer.localSamplesMaxCount)).thenReturn(100);
+        when(resources.getInteger(R.integer.localSamplesMaxAgeInHours)).thenReturn(24);
+        when(resources.getInteger(R.integer.localSamplesEvictionEvery)).thenReturn(10);
+        when(resources.getString(R.string.localSamplesEvictionPolicy)).thenReturn(BoundedSampleRepository.EVICTION_POLICY_INVALID_FIRST);
+
+        repository = new InMemorySampleRepository();
+        boundedRepository = new BoundedSampleRepository(context, repository);
+    }
+
+    private Sample sample(long ageMillis, boolean valid) {
+        Sample sample = new Sample();
+        sample.setId("sample-" + saved++);
+        sample.setDate(new Date(System.currentTimeMillis() - ageMillis));
+        sample.setValid(valid);
+        return sample;
+    }
+
+    @Test
+    public void limitsAreEnforcedEveryFewSaves() {
+        for (int i = 0; i < 105; i++)
+            boundedRepository.save(sample(0, false));
+        assertEquals(105, repository.count());
+
+        for (int i = 0; i < 5; i++)
+            boundedRepository.save(sample(0, false));
+        assertEquals(100, repository.count());
+        assertEquals(10, boundedRepository.getCounters().getEvictedByCapacity());
+    }
+
+    @Test
+    public void samplesUnderTheLimitAreNotRead() {
+        for (int i = 0; i < 50; i++)
+            boundedRepository.save(sample(0, false));
+
+        assertEquals(0, repository.read);
+    }
+
+    @Test
+    public void expiredSamplesAreEvicted() {
+        Sample undated = sample(0, false);
+        undated.setDate(null);
+        boundedRepository.save(undated);
+
+        for (int i = 0; i < 5; i++)
+            boundedRepository.save(sample(48 * HOUR_MILLIS, true));
+        for (int i = 0; i < 4; i++)
+            boundedRepository.save(sample(HOUR_MILLIS, true));
+
+        assertEquals(5, repository.count());
+        assertEquals(5, boundedRepository.getCounters().getEvictedByAge());
+        assertEquals(undated, repository.findById(undated.getId()));
+    }
+
+    @Test
+    public void invalidSamplesAreEvictedFirst() {
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            samples.add(sample(0, i % 2 == 0));
+        boundedRepository.saveAll(samples);
+
+        List<Sample> newer = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            newer.add(sample(0, true));
+        boundedRepository.saveAll(newer);
+
+        assertEquals(100, repository.count());
+        for (int i = 0; i < 20; i++)
+            assertEquals(i % 2 == 0, repository.findById("sample-" + i) != null);
+    }
+
+}
@@ -0,0 +1,47 @@
+package es.uji.al259348.sliwandroid.core.repositories.log;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+import static org.junit.Assert.assertEquals;
+
+public class LogSampleRepositoryTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static Sample sample(String id, Long date) {
+        Sample sample = new Sample();
+        sample.setId(id);
+        sample.setDate(date == null ? null : new Date(date));
+        sample.setScanResults(new ArrayList<>());
+        return sample;
+    }
+
+    @Test
+    public void removeOlderThanChecksSamplesSavedOutOfOrder() throws Exception {
+        LogSampleRepository repository = new LogSampleRepository(new SampleLog(temporaryFolder.newFolder("log"), 1024 * 1024));
+        repository.saveAll(Arrays.asList(
+                sample("old", 1000L),
+                sample("new", 5000L),
+                sample("undated", null),
+                sample("old again", 2000L)
+        ));
+
+        assertEquals(2, repository.removeOlderThan(new Date(3000L)));
+
+        List<String> ids = new ArrayList<>();
+        for (Sample sample : repository.findAll())
+            ids.add(sample.getId());
+        assertEquals(Arrays.asList("new", "undated"), ids);
+    }
+
+}
@@ -0,0 +1,83 @@
+package es.uji.al259348.sliwandroid.core.repositories.log;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.Benchmarks;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.model.TestSamples;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the append, reopen and iteration throughput of the log on the JVM of the build
+ * machine. The numbers are printed, they are only comparable among themselves.
+ */
+public class SampleLogBenchmark {
+
+    private static final int SAMPLES = 5000;
+    private static final int BATCH_SIZE = 25;
+    private static final long MAX_SEGMENT_BYTES = 262144;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setUpClass() {
+        Benchmarks.assumeEnabled();
+    }
+
+    private static void report(String operation, long startNanos, int count) {
+        double millis = (System.nanoTime() - startNanos) / 1e6;
+        System.out.println(String.format("SampleLog %-24s %6d samples in %8.1f ms, %10.0f samples/s",
+                operation, count, millis, count * 1000 / millis));
+    }
+
+    @Test
+    public void appendReopenAndIterate() throws Exception {
+        List<Sample> samples = TestSamples.samples(SAMPLES);
+
+        SampleLog single = new SampleLog(temporaryFolder.newFolder("single"), MAX_SEGMENT_BYTES);
+        long start = System.nanoTime();
+        for (Sample sample : samples.subList(0, SAMPLES / 10))
+            single.append(Collections.singletonList(sample));
+        report("append one by one", start, SAMPLES / 10);
+
+        File directory = temporaryFolder.newFolder("batched");
+        SampleLog log = new SampleLog(directory, MAX_SEGMENT_BYTES);
+        start = System.nanoTime();
+        for (int i = 0; i < SAMPLES; i += BATCH_SIZE)
+            log.append(samples.subList(i, Math.min(i + BATCH_SIZE, SAMPLES)));
+        report("append in batches of " + BATCH_SIZE, start, SAMPLES);
+
+        start = System.nanoTime();
+        log = new SampleLog(directory, MAX_SEGMENT_BYTES);
+        report("reopen", start, log.size());
+        assertEquals(SAMPLES, log.size());
+
+        start = System.nanoTime();
+        int read = 0;
+        for (Iterator<Sample> iterator = log.iterator(50); iterator.hasNext(); iterator.next())
+            read++;
+        report("iterate in pages of 50", start, read);
+        assertEquals(SAMPLES, read);
+
+        List<String> ids = new ArrayList<>(SAMPLES);
+        for (Sample sample : samples)
+            ids.add(sample.getId());
+        start = System.nanoTime();
+        for (int i = 0; i < SAMPLES; i += BATCH_SIZE)
+            log.acknowledge(ids.subList(i, Math.min(i + BATCH_SIZE, SAMPLES)));
+        report("acknowledge in batches", start, SAMPLES);
+        assertEquals(0, log.size());
+    }
+
+}
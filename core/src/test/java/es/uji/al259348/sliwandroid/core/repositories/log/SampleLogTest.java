@@ -0,0 +1,203 @@
+package es.uji.al259348.sliwandroid.core.repositories.log;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SampleLogTest {
+
+    private static final long MAX_SEGMENT_BYTES = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File directory;
+    private SampleLog log;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = temporaryFolder.newFolder("log");
+        log = new SampleLog(directory, MAX_SEGMENT_BYTES);
+    }
+
+    private static Sample sample(String id) {
+        Sample sample = new Sample();
+        sample.setId(id);
+        sample.setUserId("user");
+        sample.setDeviceId("device");
+        sample.setDate(new Date(1450000000000L));
+
+        List<Sample.WifiScanResult> scanResults = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Sample.WifiScanResult scanResult = new Sample.WifiScanResult();
+            scanResult.SSID = "ap-" + i;
+            scanResult.BSSID = "00:11:22:33:44:5" + i;
+            scanResult.level = -40 - i;
+            scanResults.add(scanResult);
+        }
+        sample.setScanResults(scanResults);
+        return sample;
+    }
+
+    private void append(String... ids) throws Exception {
+        List<Sample> samples = new ArrayList<>();
+        for (String id : ids)
+            samples.add(sample(id));
+        log.append(samples);
+    }
+
+    private SampleLog reopen() throws Exception {
+        log = new SampleLog(directory, MAX_SEGMENT_BYTES);
+        return log;
+    }
+
+    private static List<String> ids(Iterator<Sample> iterator) {
+        List<String> ids = new ArrayList<>();
+        while (iterator.hasNext())
+            ids.add(iterator.next().getId());
+        return ids;
+    }
+
+    private File segment() {
+        return new File(directory, "segment-0.log");
+    }
+
+    @Test
+    public void codecKeepsEveryField() throws Exception {
+        Sample sample = sample("a");
+        sample.setLocation(null);
+        sample.setValid(true);
+        ((List<Sample.WifiScanResult>) sample.getScanResults()).get(0).BSSID = "not a mac";
+        ((List<Sample.WifiScanResult>) sample.getScanResults()).get(1).SSID = null;
+
+        Sample decoded = SampleRecordCodec.decode(SampleRecordCodec.encode(sample));
+
+        assertEquals(sample.getId(), decoded.getId());
+        assertEquals(sample.getUserId(), decoded.getUserId());
+        assertNull(decoded.getLocation());
+        assertEquals(sample.getDate(), decoded.getDate());
+        assertTrue(decoded.isValid());
+        List<Sample.WifiScanResult> scanResults = new ArrayList<>(decoded.getScanResults());
+        assertEquals("not a mac", scanResults.get(0).BSSID);
+        assertNull(scanResults.get(1).SSID);
+        assertEquals("00:11:22:33:44:52", scanResults.get(2).BSSID);
+        assertEquals(-42, scanResults.get(2).level);
+    }
+
+    @Test
+    public void samplesSurviveReopen() throws Exception {
+        append("a", "b", "c");
+
+        assertEquals(Arrays.asList("a", "b", "c"), ids(reopen().iterator()));
+        assertEquals("b", log.read("b").getId());
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws Exception {
+        append("a", "b");
+        long length = segment().length();
+
+        // A record whose header made it to the storage but not the whole payload.
+        try (RandomAccessFile file = new RandomAccessFile(segment(), "rw")) {
+            file.seek(length);
+            file.writeInt(200);
+            file.writeInt(0);
+            file.write(new byte[20]);
+        }
+
+        assertEquals(2, reopen().size());
+        assertEquals(length, segment().length());
+
+        append("c");
+        assertEquals(Arrays.asList("a", "b", "c"), ids(reopen().iterator()));
+    }
+
+    @Test
+    public void recordWithWrongChecksumIsTruncated() throws Exception {
+        append("a", "b");
+        long length = segment().length();
+        append("c");
+
+        // Flip the last byte of the payload of the last record.
+        try (RandomAccessFile file = new RandomAccessFile(segment(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        assertEquals(Arrays.asList("a", "b"), ids(reopen().iterator()));
+        assertEquals(length, segment().length());
+    }
+
+    @Test
+    public void acknowledgedSamplesAreGoneAfterReopen() throws Exception {
+        append("a", "b", "c");
+        log.acknowledge(Collections.singletonList("b"));
+
+        assertNull(log.read("b"));
+        assertEquals(Arrays.asList("a", "c"), ids(reopen().iterator()));
+
+        log.acknowledge(Arrays.asList("a", "c"));
+        assertFalse(segment().exists());
+        assertEquals(0, reopen().size());
+    }
+
+    @Test
+    public void sampleAppendedAgainAfterItsAckSurvivesReopen() throws Exception {
+        append("a", "b");
+        log.acknowledge(Collections.singletonList("a"));
+        append("a");
+
+        assertEquals(Arrays.asList("b", "a"), ids(log.iterator()));
+        assertEquals(Arrays.asList("b", "a"), ids(reopen().iterator()));
+
+        // And it can be acknowledged again.
+        log.acknowledge(Collections.singletonList("a"));
+        assertEquals(Collections.singletonList("b"), ids(reopen().iterator()));
+    }
+
+    @Test
+    public void iterationReadsPages() throws Exception {
+        append("a", "b", "c", "d", "e");
+
+        Iterator<Sample> iterator = log.iterator(2);
+        assertEquals("a", iterator.next().getId());
+
+        // Acknowledged after the first page is read, appended while iterating.
+        log.acknowledge(Collections.singletonList("d"));
+        append("f");
+
+        assertEquals(Arrays.asList("b", "c", "e", "f"), ids(iterator));
+    }
+
+    @Test
+    public void iterationSpansSegments() throws Exception {
+        log = new SampleLog(directory, 1);
+        append("a", "b", "c", "d");
+        log.acknowledge(Collections.singletonList("b"));
+
+        assertNotNull(log.read("c"));
+        assertEquals(Arrays.asList("a", "c", "d"), ids(log.iterator(1)));
+        assertEquals(Arrays.asList("a", "c", "d"), ids(new SampleLog(directory, 1).iterator(10)));
+    }
+
+}
@@ -0,0 +1,129 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import es.uji.al259348.sliwandroid.core.Benchmarks;
+import es.uji.al259348.sliwandroid.core.model.Fingerprint;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the latency of classifying a sample against the size of the training set,
+ * through the {@link BssidIndex} of {@link KnnModel} and comparing with every training
+ * scan, as the model did before. The numbers are printed, they are only comparable among
+ * themselves.
+ *
+ * The samples come from a corridor of locations, each one seeing a window of access points
+ * that overlaps with the windows of its neighbours.
+ */
+public class BssidIndexBenchmark {
+
+    private static final int[] TRAINING_SIZES = {500, 2000, 10000};
+    private static final int QUERIES = 500;
+    private static final int WARMUP = 200;
+    private static final int K = 5;
+
+    private static final int LOCATIONS = 50;
+    private static final int ACCESS_POINTS_STEP = 8;
+    private static final int ACCESS_POINTS_PER_LOCATION = 40;
+    private static final int SCANNED = 20;
+
+    private interface Classifier {
+
+        String classify(Sample sample);
+
+    }
+
+    private Random random = new Random(7);
+
+    @BeforeClass
+    public static void setUpClass() {
+        Benchmarks.assumeEnabled();
+    }
+
+    private Sample sample(int location) {
+        List<Sample.WifiScanResult> scanResults = new ArrayList<>(SCANNED);
+        for (int i = 0; i < SCANNED; i++) {
+            int offset = random.nextInt(ACCESS_POINTS_PER_LOCATION);
+            int accessPoint = location * ACCESS_POINTS_STEP + offset;
+
+            Sample.WifiScanResult scanResult = new Sample.WifiScanResult();
+            scanResult.BSSID = String.format("00:11:22:33:%02x:%02x", accessPoint / 256, accessPoint % 256);
+            // The farther from the centre of the window, the weaker.
+            scanResult.level = -40 - Math.abs(offset - ACCESS_POINTS_PER_LOCATION / 2) * 2 - random.nextInt(10);
+            scanResults.add(scanResult);
+        }
+
+        Sample sample = new Sample();
+        sample.setLocation("location-" + location);
+        sample.setValid(true);
+        sample.setScanResults(scanResults);
+        return sample;
+    }
+
+    private static double measure(Classifier classifier, List<Sample> queries) {
+        for (int i = 0; i < WARMUP; i++)
+            classifier.classify(queries.get(i % queries.size()));
+
+        long start = System.nanoTime();
+        for (Sample query : queries)
+            classifier.classify(query);
+        return (System.nanoTime() - start) / 1e3 / queries.size();
+    }
+
+    /**
+     * The nearest training scan, comparing the query with all of them.
+     */
+    private static String classifyLinearly(List<Fingerprint> training, List<String> locations, Sample sample) {
+        Fingerprint query = Fingerprint.of(sample);
+        String best = null;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < training.size(); i++) {
+            long distance = query.squaredEuclideanDistance(training.get(i));
+            if (distance < bestDistance) {
+                best = locations.get(i);
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void queryLatencyAgainstTrainingSize() {
+        List<Sample> queries = new ArrayList<>(QUERIES);
+        for (int i = 0; i < QUERIES; i++)
+            queries.add(sample(random.nextInt(LOCATIONS)));
+
+        for (int size : TRAINING_SIZES) {
+            KnnModel model = new KnnModel(K);
+            BssidIndex index = new BssidIndex();
+            List<Fingerprint> training = new ArrayList<>(size);
+            List<String> locations = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                Sample sample = sample(i % LOCATIONS);
+                model.add(sample);
+                index.add(Fingerprint.of(sample));
+                training.add(Fingerprint.of(sample));
+                locations.add(sample.getLocation());
+            }
+            assertEquals(size, model.size());
+
+            long candidates = 0;
+            for (Sample query : queries)
+                candidates += index.search(Fingerprint.of(query)).size;
+
+            double indexed = measure(model::classify, queries);
+            double linear = measure(sample -> classifyLinearly(training, locations, sample), queries);
+
+            System.out.println(String.format("BssidIndex %6d training scans, %6d candidates per query: index %8.1f us/query, linear %8.1f us/query",
+                    size, candidates / QUERIES, indexed, linear));
+        }
+    }
+
+}
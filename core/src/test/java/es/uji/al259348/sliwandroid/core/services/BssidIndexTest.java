@@ -0,0 +1,107 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import es.uji.al259348.sliwandroid.core.model.Fingerprint;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+import static org.junit.Assert.assertEquals;
+
+public class BssidIndexTest {
+
+    private Random random;
+    private BssidIndex index;
+    private List<Fingerprint> training;
+
+    @Before
+    public void setUp() {
+        random = new Random(7);
+        index = new BssidIndex();
+        training = new ArrayList<>();
+    }
+
+    private Fingerprint randomFingerprint(int accessPoints, int scanned) {
+        List<Sample.WifiScanResult> scanResults = new ArrayList<>();
+        for (int i = 0; i < scanned; i++) {
+            Sample.WifiScanResult scanResult = new Sample.WifiScanResult();
+            int accessPoint = random.nextInt(accessPoints);
+            scanResult.BSSID = String.format("00:11:22:33:%02x:%02x", accessPoint / 256, accessPoint % 256);
+            scanResult.level = -30 - random.nextInt(65);
+            scanResults.add(scanResult);
+        }
+
+        Sample sample = new Sample();
+        sample.setScanResults(scanResults);
+        return Fingerprint.of(sample);
+    }
+
+    private void addTraining(int count, int accessPoints, int scanned) {
+        for (int i = 0; i < count; i++) {
+            Fingerprint fingerprint = randomFingerprint(accessPoints, scanned);
+            training.add(fingerprint);
+            assertEquals(training.size() - 1, index.add(fingerprint));
+        }
+    }
+
+    /**
+     * The distances of the search must be the exact ones to every training scan sharing an
+     * access point with the query, and to no other.
+     */
+    private void assertSearch(Fingerprint query) {
+        Map<Integer, Long> expected = new HashMap<>();
+        for (int id = 0; id < training.size(); id++) {
+            Fingerprint fingerprint = training.get(id);
+            boolean shared = false;
+            for (int i = 0; i < query.size() && !shared; i++)
+                shared = fingerprint.getRssiOf(query.getBssid(i)) != Fingerprint.MISSING_RSSI;
+            if (shared)
+                expected.put(id, query.squaredEuclideanDistance(fingerprint));
+        }
+
+        BssidIndex.Candidates candidates = index.search(query);
+        Map<Integer, Long> actual = new HashMap<>();
+        for (int c = 0; c < candidates.size; c++)
+            actual.put(candidates.ids[c], candidates.distances[c]);
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void searchGetsTheExactDistances() {
+        addTraining(200, 60, 12);
+
+        assertSearch(randomFingerprint(60, 12));
+    }
+
+    @Test
+    public void repeatedSearchesDontShareState() {
+        addTraining(200, 60, 12);
+
+        // Queries with many and few candidates one after another.
+        for (int i = 0; i < 50; i++)
+            assertSearch(randomFingerprint((i % 2 == 0) ? 60 : 600, 12));
+    }
+
+    @Test
+    public void searchesBetweenAdditions() {
+        for (int i = 0; i < 10; i++) {
+            addTraining(50, 60, 12);
+            assertSearch(randomFingerprint(60, 12));
+        }
+    }
+
+    @Test
+    public void queryWithoutSharedAccessPoints() {
+        addTraining(20, 60, 12);
+
+        assertEquals(0, index.search(Fingerprint.of(new Sample())).size);
+    }
+
+}
@@ -0,0 +1,99 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.model.TestSamples;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ChangeDetectionGateTest {
+
+    private Map<String, Object> preferences;
+    private ChangeDetectionGate gate;
+
+    @Before
+    public void setUp() {
+        preferences = new HashMap<>();
+
+        SharedPreferences sharedPreferences = mock(SharedPreferences.class);
+        SharedPreferences.Editor editor = mock(SharedPreferences.Editor.class);
+        when(sharedPreferences.edit()).thenReturn(editor);
+        when(sharedPreferences.getInt(anyString(), anyInt())).thenAnswer(invocation -> get(invocation.getArguments()));
+        when(sharedPreferences.getLong(anyString(), anyLong())).thenAnswer(invocation -> get(invocation.getArguments()));
+        when(sharedPreferences.getString(anyString(), anyString())).thenAnswer(invocation -> get(invocation.getArguments()));
+        when(editor.putInt(anyString(), anyInt())).thenAnswer(invocation -> put(editor, invocation.getArguments()));
+        when(editor.putLong(anyString(), anyLong())).thenAnswer(invocation -> put(editor, invocation.getArguments()));
+        when(editor.putString(anyString(), anyString())).thenAnswer(invocation -> put(editor, invocation.getArguments()));
+
+        Context context = mock(Context.class);
+        Resources resources = mock(Resources.class);
+        when(context.getResources()).thenReturn(resources);
+        when(context.getSharedPreferences(anyString(), anyInt())).thenReturn(sharedPreferences);
+        when(resources.getInteger(R.integer.changeDetectionThresholdPercent)).thenReturn(20);
+        when(resources.getInteger(R.integer.changeDetectionHeartbeatEvery)).thenReturn(3);
+        when(resources.getInteger(R.integer.changeDetectionMaxSuppressed)).thenReturn(10);
+
+        gate = new ChangeDetectionGate(context);
+    }
+
+    private Object get(Object[] arguments) {
+        return preferences.containsKey(arguments[0]) ? preferences.get(arguments[0]) : arguments[1];
+    }
+
+    private SharedPreferences.Editor put(SharedPreferences.Editor editor, Object[] arguments) {
+        preferences.put((String) arguments[0], arguments[1]);
+        return editor;
+    }
+
+    @Test
+    public void referenceOnlyAdvancesOncePublished() {
+        Sample sample = TestSamples.sample(new Date());
+
+        assertEquals(ChangeDetectionGate.Decision.PUBLISH, gate.decide(sample));
+        assertNull(gate.getReference());
+        // The publication failed and it couldn't be saved, there is nothing to compare with.
+        assertEquals(ChangeDetectionGate.Decision.PUBLISH, gate.decide(TestSamples.sample(new Date())));
+
+        gate.onPublished(sample);
+        assertEquals(sample.getId(), gate.getReference().getId());
+        assertEquals(ChangeDetectionGate.Decision.SUPPRESS, gate.decide(TestSamples.sample(new Date())));
+        assertEquals(1, gate.getCounters().getPublished());
+    }
+
+    @Test
+    public void heartbeatIsSubtractedFromTheSuppressedBytes() throws Exception {
+        Sample reference = TestSamples.sample(new Date());
+        gate.onPublished(reference);
+
+        Sample sample = TestSamples.sample(new Date());
+        long sampleBytes = JsonSerialization.getSampleWriter().writeValueAsBytes(sample).length;
+
+        assertEquals(ChangeDetectionGate.Decision.SUPPRESS, gate.decide(sample));
+        assertEquals(ChangeDetectionGate.Decision.SUPPRESS, gate.decide(sample));
+        assertEquals(ChangeDetectionGate.Decision.HEARTBEAT, gate.decide(sample));
+
+        long heartbeatBytes = SampleServiceImpl.encodeStillHere(reference.getId(), 3, System.currentTimeMillis()).length;
+        ChangeDetectionGate.Counters counters = gate.getCounters();
+        assertEquals(3, counters.getSuppressed());
+        assertEquals(1, counters.getHeartbeats());
+        assertEquals(3 * sampleBytes - heartbeatBytes, counters.getSuppressedBytes());
+    }
+
+}
@@ -0,0 +1,116 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.UUID;
+
+import es.uji.al259348.sliwandroid.core.Benchmarks;
+import es.uji.al259348.sliwandroid.core.model.Config;
+import es.uji.al259348.sliwandroid.core.model.Location;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.model.TestSamples;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the memory allocated to write the messages of a whole configuration upload,
+ * 10 locations of 50 samples, split in chunks and streamed into a reused buffer, against
+ * building the string of every sample as a single message, as the upload did before. The
+ * numbers are printed, they are only comparable among themselves.
+ */
+public class ConfigChunkBenchmark {
+
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 100;
+    private static final int LOCATIONS = 10;
+    private static final int SAMPLES_PER_LOCATION = 50;
+    private static final int CHUNK_SAMPLES = 50;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private interface Operation {
+
+        /**
+         * @return Returns the number of bytes of the messages written.
+         */
+        long run() throws Exception;
+
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        Benchmarks.assumeEnabled();
+    }
+
+    private static Config config() {
+        Config config = new Config();
+        for (int i = 0; i < LOCATIONS; i++) {
+            Location location = new Location();
+            location.setName("location-" + i);
+
+            Config.ConfigStep step = new Config.ConfigStep(location);
+            for (Sample sample : TestSamples.samples(SAMPLES_PER_LOCATION)) {
+                sample.setLocation(location.getName());
+                sample.setValid(true);
+                step.addSample(sample);
+            }
+            config.getSteps().add(step);
+        }
+        return config;
+    }
+
+    private static long writeAsString(Config config) throws Exception {
+        return JsonSerialization.getSampleListWriter().writeValueAsString(config.getSamples()).getBytes(UTF_8).length;
+    }
+
+    private static long writeInChunks(String uploadId, Config config, ByteArrayOutputStream buffer) throws Exception {
+        List<List<Sample>> chunks = UserServiceImpl.splitInChunks(config, CHUNK_SAMPLES);
+        long bytes = 0;
+        for (int i = 0; i < chunks.size(); i++)
+            bytes += JsonSerialization.writeConfigChunk(uploadId, i, chunks.size(), chunks.get(i), buffer).length;
+        return bytes;
+    }
+
+    private static void measure(String name, com.sun.management.ThreadMXBean threads, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP; i++)
+            operation.run();
+
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        long bytes = 0;
+        for (int i = 0; i < ITERATIONS; i++)
+            bytes = operation.run();
+        double millis = (System.nanoTime() - start) / 1e6 / ITERATIONS;
+        long allocated = (threads.getThreadAllocatedBytes(thread) - allocatedBefore) / ITERATIONS;
+
+        System.out.println(String.format("ConfigChunk %-30s %9d bytes allocated per upload of %8d bytes, %6.2f ms/upload",
+                name, allocated, bytes, millis));
+    }
+
+    @Test
+    public void streamedChunksAgainstAString() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        String uploadId = UUID.randomUUID().toString();
+        Config config = config();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        List<List<Sample>> chunks = UserServiceImpl.splitInChunks(config, CHUNK_SAMPLES);
+        assertEquals(LOCATIONS * SAMPLES_PER_LOCATION / CHUNK_SAMPLES, chunks.size());
+
+        measure("string of every sample", threads, () -> writeAsString(config));
+        // The bytes of the upload are also the bytes copied out of the buffer, a copy per chunk.
+        measure("streamed chunks, reused buffer", threads, () -> writeInChunks(uploadId, config, buffer));
+    }
+
+}
@@ -0,0 +1,68 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Date;
+
+import es.uji.al259348.sliwandroid.core.Benchmarks;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import es.uji.al259348.sliwandroid.core.model.TestSamples;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the shared readers and writers of {@link JsonSerialization} with a mapper built
+ * for every use, as the services did before. The numbers are printed, they are only
+ * comparable among themselves.
+ */
+public class JsonSerializationBenchmark {
+
+    private static final int WARMUP = 2000;
+    private static final int ITERATIONS = 5000;
+
+    private interface Operation {
+
+        Object run() throws Exception;
+
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        Benchmarks.assumeEnabled();
+    }
+
+    private static double measure(String name, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP; i++)
+            operation.run();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            operation.run();
+        double micros = (System.nanoTime() - start) / 1e3 / ITERATIONS;
+
+        System.out.println(String.format("JsonSerialization %-32s %8.2f us/op", name, micros));
+        return micros;
+    }
+
+    @Test
+    public void sharedWriterAndReaderAgainstAMapperPerUse() throws Exception {
+        Sample sample = TestSamples.sample(new Date(1450000000000L));
+        byte[] json = JsonSerialization.getSampleWriter().writeValueAsBytes(sample);
+        assertArrayEquals(json, new ObjectMapper().writeValueAsBytes(sample));
+
+        measure("write, new mapper per sample", () -> new ObjectMapper().writeValueAsBytes(sample));
+        measure("write, shared writer", () -> JsonSerialization.getSampleWriter().writeValueAsBytes(sample));
+
+        measure("read, new mapper per sample", () -> new ObjectMapper().readValue(json, Sample.class));
+        measure("read, shared reader", () -> JsonSerialization.getSampleReader().readValue(json));
+
+        Sample read = JsonSerialization.getSampleReader().readValue(json);
+        assertEquals(sample.getId(), read.getId());
+        assertEquals(TestSamples.SCAN_RESULTS, read.getScanResults().size());
+    }
+
+}
@@ -0,0 +1,94 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessagingServiceImplTest {
+
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    private MqttTestClient mqtt;
+    private TestScheduler scheduler;
+    private MqttRequestDispatcher requestDispatcher;
+    private MessagingServiceImpl messagingService;
+
+    @Before
+    public void setUp() throws Exception {
+        mqtt = new MqttTestClient();
+        scheduler = new TestScheduler();
+
+        Context context = MqttTestClient.mockContext(30000, TIMEOUT_MILLIS);
+        MqttConnectionManager connectionManager = new MqttConnectionManager(context, mqtt.factory(), scheduler);
+        PayloadCompressor payloadCompressor = new PayloadCompressor(new DeflateCompressionStage(), Integer.MAX_VALUE);
+        requestDispatcher = new MqttRequestDispatcher(payloadCompressor);
+        connectionManager.addStandingSubscription("+/+/+/response/+", requestDispatcher);
+
+        messagingService = new MessagingServiceImpl(context, connectionManager, requestDispatcher, payloadCompressor, scheduler);
+    }
+
+    private String responseTopic() {
+        assertEquals(1, mqtt.publishedTopics.size());
+        return mqtt.publishedTopics.get(0).replace("/request/", "/response/");
+    }
+
+    @Test
+    public void requestGetsItsResponse() throws Exception {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        messagingService.request("users/1/configure", "{}").subscribe(subscriber);
+
+        mqtt.deliver(responseTopic(), "ok");
+        scheduler.advanceTimeBy(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+
+        subscriber.assertValue("ok");
+        subscriber.assertCompleted();
+        subscriber.assertNoErrors();
+    }
+
+    @Test
+    public void requestTimesOut() throws Exception {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        messagingService.request("users/1/configure", "{}").subscribe(subscriber);
+
+        scheduler.advanceTimeBy(TIMEOUT_MILLIS - 1, TimeUnit.MILLISECONDS);
+        subscriber.assertNoTerminalEvent();
+
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        subscriber.assertError(InterruptedIOException.class);
+        assertEquals(0, requestDispatcher.countPendingRequests());
+    }
+
+    @Test
+    public void lateResponseIsIgnored() throws Exception {
+        TestSubscriber<String> subscriber = new TestSubscriber<>();
+        messagingService.request("users/1/configure", "{}").subscribe(subscriber);
+
+        scheduler.advanceTimeBy(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        mqtt.deliver(responseTopic(), "too late");
+
+        subscriber.assertNoValues();
+        assertEquals(1, subscriber.getOnErrorEvents().size());
+        assertTrue(subscriber.getOnErrorEvents().get(0) instanceof InterruptedIOException);
+    }
+
+    @Test
+    public void timeoutOfTheMostSpecificTopicFilterWins() {
+        messagingService.setRequestTimeout("users/#", 10000);
+        messagingService.setRequestTimeout("users/+/configure", 30000);
+
+        assertEquals(30000, messagingService.getRequestTimeout("users/1/configure"));
+        assertEquals(10000, messagingService.getRequestTimeout("users/1/link"));
+        assertEquals(TIMEOUT_MILLIS, messagingService.getRequestTimeout("samples/1/save"));
+    }
+
+}
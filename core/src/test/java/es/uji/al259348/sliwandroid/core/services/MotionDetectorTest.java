@@ -0,0 +1,143 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionDetectorTest {
+
+    private static final double VARIANCE_THRESHOLD = 0.1;
+    private static final long WINDOW_MILLIS = 2000;
+    private static final long STILL_AFTER_MILLIS = 300000;
+
+    /**
+     * Readings every 20 ms, as the accelerometer at SENSOR_DELAY_GAME.
+     */
+    private static final long PERIOD_MILLIS = 20;
+
+    private static final double GRAVITY = 9.81;
+
+    private MotionDetector motionDetector;
+    private Random random;
+    private long nowMillis;
+
+    private List<Long> stillAt;
+    private List<Long> movingAt;
+
+    @Before
+    public void setUp() {
+        motionDetector = new MotionDetector(VARIANCE_THRESHOLD, WINDOW_MILLIS, STILL_AFTER_MILLIS);
+        random = new Random(42);
+        stillAt = new ArrayList<>();
+        movingAt = new ArrayList<>();
+
+        motionDetector.setListener(new MotionDetector.Listener() {
+            @Override
+            public void onStill() {
+                stillAt.add(nowMillis);
+            }
+
+            @Override
+            public void onMoving() {
+                movingAt.add(nowMillis);
+            }
+        });
+    }
+
+    /**
+     * A device lying on a table: gravity and the noise of the sensor.
+     */
+    private void still(long durationMillis, long periodMillis) {
+        long end = nowMillis + durationMillis;
+        for (; nowMillis < end; nowMillis += periodMillis)
+            feed(0, 0, GRAVITY + random.nextGaussian() * 0.02);
+    }
+
+    /**
+     * A device in a pocket while walking: about two steps per second.
+     */
+    private void walking(long durationMillis) {
+        long end = nowMillis + durationMillis;
+        for (; nowMillis < end; nowMillis += PERIOD_MILLIS) {
+            double step = 3 * Math.sin(2 * Math.PI * 2 * nowMillis / 1000.0);
+            feed(random.nextGaussian() * 0.5, random.nextGaussian() * 0.5, GRAVITY + step);
+        }
+    }
+
+    private void feed(double x, double y, double z) {
+        motionDetector.onAcceleration(nowMillis * 1000000L, (float) x, (float) y, (float) z);
+    }
+
+    @Test
+    public void stillTraceTurnsStillAfterTheDelay() {
+        still(400000, PERIOD_MILLIS);
+
+        assertEquals(1, stillAt.size());
+        assertTrue(stillAt.get(0) >= STILL_AFTER_MILLIS);
+        assertTrue(stillAt.get(0) <= STILL_AFTER_MILLIS + WINDOW_MILLIS);
+        assertTrue(movingAt.isEmpty());
+        assertTrue(motionDetector.isStill());
+    }
+
+    @Test
+    public void walkingTraceNeverTurnsStill() {
+        walking(600000);
+
+        assertTrue(stillAt.isEmpty());
+        assertTrue(movingAt.isEmpty());
+        assertFalse(motionDetector.isStill());
+    }
+
+    @Test
+    public void walkingAfterBeingStillIsMoving() {
+        still(360000, PERIOD_MILLIS);
+        long walkingFrom = nowMillis;
+        walking(60000);
+
+        assertEquals(1, stillAt.size());
+        assertEquals(1, movingAt.size());
+        assertTrue(movingAt.get(0) >= walkingFrom);
+        assertTrue(movingAt.get(0) <= walkingFrom + 2 * WINDOW_MILLIS);
+        assertFalse(motionDetector.isStill());
+    }
+
+    @Test
+    public void shortPauseWhileWalkingIsNotStill() {
+        walking(60000);
+        still(STILL_AFTER_MILLIS - 10000, PERIOD_MILLIS);
+        walking(60000);
+
+        assertTrue(stillAt.isEmpty());
+        assertTrue(movingAt.isEmpty());
+    }
+
+    @Test
+    public void significantMotionIsMoving() {
+        still(360000, PERIOD_MILLIS);
+        motionDetector.onSignificantMotion(nowMillis * 1000000L);
+
+        assertEquals(1, movingAt.size());
+        assertFalse(motionDetector.isStill());
+
+        // The delay starts again from the motion.
+        still(STILL_AFTER_MILLIS - 10000, PERIOD_MILLIS);
+        assertEquals(1, stillAt.size());
+        still(20000, PERIOD_MILLIS);
+        assertEquals(2, stillAt.size());
+    }
+
+    @Test
+    public void sparseReadingsAreDiscarded() {
+        still(400000, 1000);
+
+        assertTrue(stillAt.isEmpty());
+    }
+
+}
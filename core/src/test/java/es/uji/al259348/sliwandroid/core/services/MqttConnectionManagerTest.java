@@ -0,0 +1,82 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class MqttConnectionManagerTest {
+
+    private static final int LINGER_MILLIS = 30000;
+
+    private MqttTestClient mqtt;
+    private TestScheduler scheduler;
+    private MqttConnectionManager connectionManager;
+
+    @Before
+    public void setUp() throws Exception {
+        mqtt = new MqttTestClient();
+        scheduler = new TestScheduler();
+        connectionManager = new MqttConnectionManager(MqttTestClient.mockContext(LINGER_MILLIS, 5000), mqtt.factory(), scheduler);
+    }
+
+    private void connect() {
+        TestSubscriber<Void> subscriber = new TestSubscriber<>();
+        connectionManager.connect().subscribe(subscriber);
+        subscriber.assertCompleted();
+    }
+
+    @Test
+    public void twoUsersShareOneConnection() throws Exception {
+        connectionManager.acquire();
+        connect();
+        connectionManager.acquire();
+        connect();
+
+        assertEquals(1, mqtt.created);
+        verify(mqtt.client, times(1)).connect(org.mockito.Matchers.any());
+    }
+
+    @Test
+    public void connectionIsClosedAfterTheLingerPeriod() throws Exception {
+        connectionManager.acquire();
+        connect();
+        connectionManager.acquire();
+        connect();
+
+        connectionManager.release();
+        scheduler.advanceTimeBy(LINGER_MILLIS, TimeUnit.MILLISECONDS);
+        verify(mqtt.client, never()).disconnect();
+
+        connectionManager.release();
+        scheduler.advanceTimeBy(LINGER_MILLIS - 1, TimeUnit.MILLISECONDS);
+        verify(mqtt.client, never()).disconnect();
+
+        scheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        verify(mqtt.client).disconnect();
+    }
+
+    @Test
+    public void connectionIsKeptWhenAcquiredWithinTheLingerPeriod() throws Exception {
+        connectionManager.acquire();
+        connect();
+        connectionManager.release();
+
+        scheduler.advanceTimeBy(LINGER_MILLIS / 2, TimeUnit.MILLISECONDS);
+        connectionManager.acquire();
+        connect();
+        scheduler.advanceTimeBy(LINGER_MILLIS, TimeUnit.MILLISECONDS);
+
+        verify(mqtt.client, never()).disconnect();
+        assertEquals(1, mqtt.created);
+    }
+
+}
@@ -0,0 +1,91 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import org.eclipse.paho.android.service.MqttAndroidClient;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.R;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A mocked MQTT client whose operations succeed right away, which records the messages
+ * published and lets the tests deliver messages to it.
+ */
+class MqttTestClient {
+
+    static Context mockContext(int lingerMillis, int requestTimeoutMillis) {
+        Context context = mock(Context.class);
+        Resources resources = mock(Resources.class);
+        when(context.getResources()).thenReturn(resources);
+        when(context.getApplicationContext()).thenReturn(context);
+        when(resources.getString(anyInt())).thenReturn("test");
+        when(resources.getInteger(R.integer.mqttConnectionLingerInMillis)).thenReturn(lingerMillis);
+        when(resources.getInteger(R.integer.requestTimeoutInMillis)).thenReturn(requestTimeoutMillis);
+        return context;
+    }
+
+    final MqttAndroidClient client = mock(MqttAndroidClient.class);
+    final List<String> publishedTopics = new ArrayList<>();
+
+    int created;
+    private boolean connected;
+    private MqttCallback callback;
+
+    MqttTestClient() throws Exception {
+        when(client.isConnected()).thenAnswer(invocation -> connected);
+        when(client.connect(any(MqttConnectOptions.class))).thenAnswer(invocation -> {
+            connected = true;
+            return successfulToken();
+        });
+        when(client.disconnect()).thenAnswer(invocation -> {
+            connected = false;
+            return successfulToken();
+        });
+        when(client.subscribe(any(String[].class), any(int[].class))).thenAnswer(invocation -> successfulToken());
+        when(client.publish(anyString(), any(byte[].class), anyInt(), anyBoolean())).thenAnswer(invocation -> {
+            publishedTopics.add((String) invocation.getArguments()[0]);
+            return successfulToken();
+        });
+        doAnswer(invocation -> {
+            callback = (MqttCallback) invocation.getArguments()[0];
+            return null;
+        }).when(client).setCallback(any(MqttCallback.class));
+    }
+
+    MqttConnectionManager.ClientFactory factory() {
+        return () -> {
+            created++;
+            return client;
+        };
+    }
+
+    void deliver(String topic, String payload) throws Exception {
+        callback.messageArrived(topic, new MqttMessage(payload.getBytes()));
+    }
+
+    private static IMqttDeliveryToken successfulToken() {
+        IMqttDeliveryToken token = mock(IMqttDeliveryToken.class);
+        doAnswer(invocation -> {
+            ((IMqttActionListener) invocation.getArguments()[0]).onSuccess(token);
+            return null;
+        }).when(token).setActionCallback(any(IMqttActionListener.class));
+        return token;
+    }
+
+}
@@ -0,0 +1,152 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import android.content.Context;
+import android.content.res.Resources;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import es.uji.al259348.sliwandroid.core.R;
+import es.uji.al259348.sliwandroid.core.model.Sample;
+import rx.Observable;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SampleDrainTest {
+
+    private static final int BATCH_SIZE = 6;
+    private static final int SUB_BATCH_SIZE = 2;
+
+    private SampleService sampleService;
+    private SampleDrain sampleDrain;
+
+    // The ids of the samples sent by every call to publishBatch.
+    private List<List<String>> published;
+    private List<String> removed;
+
+    // The number of sub-batches accepted before the connection is lost, by call.
+    private List<Integer> failures;
+
+    @Before
+    public void setUp() {
+        Context context = mock(Context.class);
+        Resources resources = mock(Resources.class);
+        when(context.getResources()).thenReturn(resources);
+        when(resources.getInteger(anyInt())).thenReturn(1);
+        when(resources.getInteger(R.integer.publishBatchMaxSamples)).thenReturn(BATCH_SIZE);
+
+        published = new ArrayList<>();
+        removed = new ArrayList<>();
+        failures = new ArrayList<>();
+
+        sampleService = mock(SampleService.class);
+        when(sampleService.publishBatch(anyListOf(Sample.class))).thenAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            List<Sample> samples = (List<Sample>) invocation.getArguments()[0];
+            return publishBatch(samples);
+        });
+        doAnswer(invocation -> {
+            @SuppressWarnings("unchecked")
+            Collection<Sample> samples = (Collection<Sample>) invocation.getArguments()[0];
+            for (Sample sample : samples)
+                removed.add(sample.getId());
+            return null;
+        }).when(sampleService).removeAll(anyCollectionOf(Sample.class));
+
+        sampleDrain = new SampleDrain(context, sampleService);
+        sampleDrain.setRetries(3, 0);
+        sampleDrain.setDeadline(60000);
+    }
+
+    /**
+     * Split the samples in sub-batches, as the service does, and accept them all unless the
+     * connection is lost after some of them.
+     */
+    private Observable<List<Sample>> publishBatch(List<Sample> samples) {
+        int call = published.size();
+        List<String> ids = new ArrayList<>();
+        for (Sample sample : samples)
+            ids.add(sample.getId());
+        published.add(ids);
+
+        int acceptedSubBatches = (call < failures.size()) ? failures.get(call) : Integer.MAX_VALUE;
+
+        List<Observable<List<Sample>>> subBatches = new ArrayList<>();
+        for (int i = 0; i < samples.size(); i += SUB_BATCH_SIZE) {
+            if (subBatches.size() == acceptedSubBatches) {
+                subBatches.add(Observable.error(new Exception("Connection lost")));
+                break;
+            }
+            subBatches.add(Observable.just(new ArrayList<>(samples.subList(i, Math.min(i + SUB_BATCH_SIZE, samples.size())))));
+        }
+        return Observable.concat(Observable.from(subBatches));
+    }
+
+    private static List<Sample> samples(int count) {
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Sample sample = new Sample();
+            sample.setId("sample-" + i);
+            samples.add(sample);
+        }
+        return samples;
+    }
+
+    private SampleDrain.Progress drain(List<Sample> samples) {
+        return sampleDrain.drain(samples).toBlocking().last();
+    }
+
+    @Test
+    public void batchIsPublishedOnce() {
+        SampleDrain.Progress progress = drain(samples(BATCH_SIZE));
+
+        assertEquals(1, published.size());
+        assertEquals(BATCH_SIZE, progress.getAccepted());
+        assertEquals(BATCH_SIZE, removed.size());
+    }
+
+    @Test
+    public void retryDoesntRepublishTheAcceptedSubBatches() {
+        failures.add(1);
+        failures.add(1);
+
+        SampleDrain.Progress progress = drain(samples(BATCH_SIZE));
+
+        assertEquals(3, published.size());
+        assertEquals(6, published.get(0).size());
+        assertEquals(4, published.get(1).size());
+        assertEquals(2, published.get(2).size());
+        assertEquals("sample-4", published.get(2).get(0));
+
+        assertEquals(BATCH_SIZE, progress.getAccepted());
+        assertEquals(0, progress.getFailed());
+        assertEquals(BATCH_SIZE, removed.size());
+    }
+
+    @Test
+    public void failedBatchKeepsItsAcceptedSamples() {
+        failures.add(1);
+        failures.add(0);
+        failures.add(0);
+        failures.add(0);
+
+        SampleDrain.Progress progress = drain(samples(BATCH_SIZE));
+
+        assertEquals(4, published.size());
+        assertEquals(SUB_BATCH_SIZE, progress.getAccepted());
+        assertEquals(BATCH_SIZE - SUB_BATCH_SIZE, progress.getFailed());
+        assertEquals(0, progress.getRejected());
+        assertEquals(SUB_BATCH_SIZE, removed.size());
+    }
+
+}
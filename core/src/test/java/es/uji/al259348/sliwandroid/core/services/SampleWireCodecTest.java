@@ -0,0 +1,94 @@
+package es.uji.al259348.sliwandroid.core.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import es.uji.al259348.sliwandroid.core.model.Sample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SampleWireCodecTest {
+
+    private static Sample sample(String bssid) {
+        Sample sample = new Sample();
+        sample.setId(UUID.randomUUID().toString());
+        sample.setUserId("user");
+        sample.setDeviceId("device");
+        sample.setDate(new Date(1450000000000L));
+
+        List<Sample.WifiScanResult> scanResults = new ArrayList<>();
+        Sample.WifiScanResult scanResult = new Sample.WifiScanResult();
+        scanResult.SSID = "network";
+        scanResult.BSSID = bssid;
+        scanResult.level = -45;
+        scanResults.add(scanResult);
+        sample.setScanResults(scanResults);
+        return sample;
+    }
+
+    private static JsonNode readTree(byte[] json) throws Exception {
+        return JsonSerialization.getObjectMapper().readTree(json);
+    }
+
+    @Test
+    public void binaryMessageHasTheHeaderAndPackedScanResults() throws Exception {
+        Sample sample = sample("00:11:22:aa:bb:cc");
+
+        byte[] message = SampleWireCodec.encode(Arrays.asList(sample, sample));
+
+        assertEquals(SampleWireCodec.MAGIC, message[0] & 0xFF);
+        assertEquals(SampleWireCodec.VERSION, message[1]);
+        assertEquals(2, message[2]);
+        // A single SSID in the dictionary, shared by both samples.
+        assertEquals(1, message[3]);
+
+        // The last scan result: SSID index, BSSID and RSSI.
+        byte[] last = Arrays.copyOfRange(message, message.length - 8, message.length);
+        assertArrayEquals(new byte[]{1, 0x00, 0x11, 0x22, (byte) 0xaa, (byte) 0xbb, (byte) 0xcc, -45}, last);
+
+        assertTrue(message.length <= SampleWireCodec.estimateSize(Arrays.asList(sample, sample)));
+        assertTrue(message.length < JsonSerialization.getSampleWriter().writeValueAsBytes(sample).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bssidThatIsNotAMacCantBeEncoded() {
+        SampleWireCodec.encode(Arrays.asList(sample("not a mac")));
+    }
+
+    @Test
+    public void singleSampleFallsBackToAJsonObject() throws Exception {
+        Sample sample = sample("not a mac");
+
+        JsonNode json = readTree(SampleServiceImpl.encode(sample, SampleWireCodec.FORMAT_BINARY));
+
+        assertTrue(json.isObject());
+        assertEquals(sample.getId(), json.get("id").asText());
+        assertArrayEquals(
+                JsonSerialization.getSampleWriter().writeValueAsBytes(sample),
+                SampleServiceImpl.encode(sample, SampleWireCodec.FORMAT_JSON)
+        );
+    }
+
+    @Test
+    public void batchFallsBackToAJsonArray() throws Exception {
+        SampleServiceImpl.SampleBatch batch = new SampleServiceImpl.SampleBatch();
+        batch.add(sample("00:11:22:33:44:55"), null, 0);
+        batch.add(sample("not a mac"), null, 0);
+
+        JsonNode json = readTree(SampleServiceImpl.encode(batch, SampleWireCodec.FORMAT_BINARY));
+
+        assertTrue(json.isArray());
+        assertEquals(2, json.size());
+        assertEquals("not a mac", json.get(1).get("scanResults").get(0).get("BSSID").asText());
+    }
+
+}